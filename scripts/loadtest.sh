@@ -0,0 +1,37 @@
+#!/usr/bin/env bash
+# Ejecuta LoadTestRunner contra DynamoDB Local.
+# Si no hay nada escuchando en DYNAMODB_ENDPOINT, levanta DynamoDB Local en Docker (en memoria)
+# y lo detiene al terminar. Los argumentos se pasan tal cual al runner, por ejemplo:
+#   scripts/loadtest.sh --duration=300 --rate=200 --output=target/loadtest.json
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+PORT="${DYNAMODB_LOCAL_PORT:-8000}"
+export DYNAMODB_ENDPOINT="${DYNAMODB_ENDPOINT:-http://localhost:${PORT}}"
+# DynamoDB Local acepta cualquier credencial
+export AWS_ACCESS_KEY_ID="${AWS_ACCESS_KEY_ID:-local}"
+export AWS_SECRET_ACCESS_KEY="${AWS_SECRET_ACCESS_KEY:-local}"
+export METRICS_NAMESPACE="${METRICS_NAMESPACE:-BookTrackerLoadTest}"
+
+# El runner vive en src/test: se ejecuta desde las clases compiladas con el classpath de test
+CLASSPATH_FILE="target/loadtest.classpath"
+JAVA_OPTS="${JAVA_OPTS:--Xms512m -Xmx512m -XX:+UseG1GC}"
+
+if ! curl -s -o /dev/null "${DYNAMODB_ENDPOINT}"; then
+  CONTAINER="booktracker-dynamodb-local-$$"
+  docker run -d --rm --name "${CONTAINER}" -p "${PORT}:8000" amazon/dynamodb-local -jar DynamoDBLocal.jar -inMemory -sharedDb > /dev/null
+  trap 'docker stop "${CONTAINER}" > /dev/null' EXIT
+
+  for _ in $(seq 1 30); do
+    curl -s -o /dev/null "${DYNAMODB_ENDPOINT}" && break
+    sleep 1
+  done
+fi
+
+if [ ! -f "${CLASSPATH_FILE}" ] || [ ! -d target/test-classes ] || [ "${REBUILD:-0}" = "1" ]; then
+  mvn -q -B test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile="${CLASSPATH_FILE}"
+fi
+
+# shellcheck disable=SC2086
+java ${JAVA_OPTS} -cp "target/classes:target/test-classes:$(cat "${CLASSPATH_FILE}")" cl.rosta.LoadTestRunner --create-tables "$@"
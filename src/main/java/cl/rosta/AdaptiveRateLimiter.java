@@ -0,0 +1,124 @@
+package cl.rosta;
+
+import java.util.concurrent.TimeUnit;
+
+// Limitador de tasa del lado del cliente (token bucket con AIMD).
+// Permanece inactivo hasta el primer throttle; desde ahí reduce la tasa de envío
+// multiplicativamente en cada throttle y la recupera de forma lineal con cada éxito
+public class AdaptiveRateLimiter {
+
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Una ventana más larga que esto abarcó un periodo inactivo y su promedio no representa la tasa de envío
+    private static final long MAX_WINDOW_NANOS = 2 * WINDOW_NANOS;
+
+    private final double minRate;
+    private final double maxRate;
+    private final double increasePerSuccess;
+
+    private boolean enabled;
+    private double fillRate;
+    private double tokens;
+    private long lastRefillNanos;
+
+    // Tasa de envío medida en ventanas de un segundo; measuredAtNanos es 0 si no hay una medición reciente
+    private long windowStartNanos;
+    private int windowCount;
+    private double measuredRate;
+    private long measuredAtNanos;
+
+    public AdaptiveRateLimiter(double minRate, double maxRate, double increasePerSuccess) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increasePerSuccess = increasePerSuccess;
+        this.lastRefillNanos = System.nanoTime();
+        this.windowStartNanos = lastRefillNanos;
+    }
+
+    // Activa el limitador desde el inicio con una tasa fija (por ejemplo, para cargas masivas)
+    public synchronized void enable(double initialRate) {
+        enabled = true;
+        fillRate = Math.max(minRate, Math.min(maxRate, initialRate));
+        tokens = 0;
+        lastRefillNanos = System.nanoTime();
+    }
+
+    public long reserve(long maxWaitMillis) {
+        return reserve(1, maxWaitMillis);
+    }
+
+    // Reserva tokens y devuelve cuántos milisegundos hay que esperar antes de enviar,
+    // o -1 si la espera superaría maxWaitMillis (en ese caso no se reserva nada)
+    public synchronized long reserve(int permits, long maxWaitMillis) {
+        long now = System.nanoTime();
+        measure(now, permits);
+
+        if (!enabled) {
+            return 0;
+        }
+
+        refill(now, permits);
+        double missing = permits - tokens;
+        long waitMillis = missing <= 0 ? 0 : (long) Math.ceil(missing / fillRate * 1000);
+        if (waitMillis > maxWaitMillis) {
+            return -1;
+        }
+
+        tokens -= permits;
+        return waitMillis;
+    }
+
+    // Reduce la tasa a partir de la medida si hay una ventana completa, reciente y con envíos; si no (primer
+    // segundo del proceso o después de un periodo inactivo), a partir de la tasa actual o de la máxima
+    public synchronized void onThrottle() {
+        long now = System.nanoTime();
+        measure(now, 0);
+        boolean measured = measuredAtNanos != 0 && now - measuredAtNanos <= MAX_WINDOW_NANOS;
+
+        double current = enabled ? fillRate : maxRate;
+        double base = measured ? Math.min(current, Math.max(measuredRate, minRate)) : current;
+        fillRate = Math.max(minRate, base * DECREASE_FACTOR);
+        if (!enabled) {
+            enabled = true;
+            tokens = 0;
+            lastRefillNanos = now;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (enabled) {
+            fillRate = Math.min(maxRate, fillRate + increasePerSuccess);
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized double getFillRate() {
+        return enabled ? fillRate : Double.POSITIVE_INFINITY;
+    }
+
+    private void refill(long now, int permits) {
+        double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        // Se permite una ráfaga de hasta un segundo de tokens
+        tokens = Math.min(Math.max(fillRate, permits), tokens + elapsedSeconds * fillRate);
+        lastRefillNanos = now;
+    }
+
+    private void measure(long now, int permits) {
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= WINDOW_NANOS) {
+            // Una ventana sin envíos no mide la capacidad: no hubo tráfico que pudiera ser limitado
+            if (elapsed <= MAX_WINDOW_NANOS && windowCount > 0) {
+                measuredRate = windowCount / (elapsed / (double) WINDOW_NANOS);
+                measuredAtNanos = now;
+            } else {
+                measuredAtNanos = 0;
+            }
+            windowCount = 0;
+            windowStartNanos = now;
+        }
+        windowCount += permits;
+    }
+}
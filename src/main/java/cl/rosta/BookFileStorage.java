@@ -0,0 +1,88 @@
+package cl.rosta;
+
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Abre archivos de exportación en disco local o en S3 ("s3://bucket/key").
+// Los nombres terminados en ".gz" se comprimen/descomprimen con gzip.
+// Las salidas se publican solo con StagedOutputStream.commit()
+public class BookFileStorage {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final S3Client s3Client;
+
+    public BookFileStorage() {
+        this(S3Client.builder()
+                .region(Region.US_EAST_1)
+                .build());
+    }
+
+    BookFileStorage(S3Client s3Client) {
+        this.s3Client = s3Client;
+    }
+
+    public StagedOutputStream openOutput(String location) throws IOException {
+        if (isS3(location)) {
+            S3MultipartOutputStream s3Output = new S3MultipartOutputStream(s3Client, bucket(location), key(location));
+            return StagedOutputStream.forS3(wrapOutput(location, s3Output), s3Output);
+        }
+
+        // El archivo temporal queda en el mismo directorio para que el rename final sea atómico
+        Path path = Paths.get(location).toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        Path tempFile = Files.createTempFile(path.getParent(), "." + path.getFileName(), ".tmp");
+        return StagedOutputStream.forFile(wrapOutput(location, Files.newOutputStream(tempFile)), tempFile, path);
+    }
+
+    public InputStream openInput(String location) throws IOException {
+        InputStream in;
+        if (isS3(location)) {
+            // La respuesta de GetObject se consume en streaming, sin descargar el archivo completo
+            in = s3Client.getObject(GetObjectRequest.builder()
+                    .bucket(bucket(location))
+                    .key(key(location))
+                    .build());
+        } else {
+            in = Files.newInputStream(Paths.get(location));
+        }
+
+        in = new BufferedInputStream(in, BUFFER_SIZE);
+        return location.endsWith(".gz") ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    private static OutputStream wrapOutput(String location, OutputStream out) throws IOException {
+        out = new BufferedOutputStream(out, BUFFER_SIZE);
+        return location.endsWith(".gz") ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    private static boolean isS3(String location) {
+        return location.startsWith("s3://");
+    }
+
+    private static String bucket(String location) {
+        String path = location.substring("s3://".length());
+        int slash = path.indexOf('/');
+        if (slash <= 0 || slash == path.length() - 1) {
+            throw new IllegalArgumentException("Invalid S3 location: " + location);
+        }
+        return path.substring(0, slash);
+    }
+
+    private static String key(String location) {
+        String path = location.substring("s3://".length());
+        return path.substring(path.indexOf('/') + 1);
+    }
+}
@@ -0,0 +1,109 @@
+package cl.rosta;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+// Conversión directa entre items de DynamoDB y JSON usando la API de streaming de Jackson,
+// sin pasar por mapas intermedios de objetos. Los objetos y arreglos anidados se guardan como
+// string JSON, igual que los guarda la API (BookJsonDecoder usa readValue)
+public final class BookItemJson {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private BookItemJson() {
+    }
+
+    public static void write(JsonGenerator generator, Map<String, AttributeValue> item) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            generator.writeFieldName(entry.getKey());
+            writeValue(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    // Lee un objeto JSON; el parser debe estar posicionado en START_OBJECT
+    public static Map<String, AttributeValue> read(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected JSON object but found " + parser.currentToken());
+        }
+
+        Map<String, AttributeValue> item = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            item.put(name, readValue(parser));
+        }
+        return item;
+    }
+
+    private static void writeValue(JsonGenerator generator, AttributeValue value) throws IOException {
+        if (value.s() != null) {
+            generator.writeString(value.s());
+        } else if (value.n() != null) {
+            // Se escribe el número tal cual para no perder precisión
+            generator.writeNumber(value.n());
+        } else if (value.bool() != null) {
+            generator.writeBoolean(value.bool());
+        } else if (value.hasM()) {
+            // La API no escribe M ni L; si otra herramienta los dejó, al importar vuelven como string JSON
+            write(generator, value.m());
+        } else if (value.hasL()) {
+            generator.writeStartArray();
+            for (AttributeValue element : value.l()) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        } else if (value.hasSs()) {
+            generator.writeStartArray();
+            for (String element : value.ss()) {
+                generator.writeString(element);
+            }
+            generator.writeEndArray();
+        } else if (value.hasNs()) {
+            generator.writeStartArray();
+            for (String element : value.ns()) {
+                generator.writeNumber(element);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeNull();
+        }
+    }
+
+    // Convierte el valor actual del parser; un objeto o arreglo se copia como string JSON compacto
+    static AttributeValue readValue(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_STRING:
+                return AttributeValue.builder().s(parser.getText()).build();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return AttributeValue.builder().n(parser.getText()).build();
+            case VALUE_TRUE:
+                return AttributeValue.builder().bool(true).build();
+            case VALUE_FALSE:
+                return AttributeValue.builder().bool(false).build();
+            case START_OBJECT:
+            case START_ARRAY:
+                return AttributeValue.builder().s(copyStructure(parser)).build();
+            default:
+                return AttributeValue.builder().nul(true).build();
+        }
+    }
+
+    private static String copyStructure(JsonParser parser) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,148 @@
+package cl.rosta;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.util.*;
+
+// Lee el cuerpo de POST /book y PUT /book/{id} token por token y arma directamente el mapa
+// de AttributeValue, sin pasar por un HashMap de objetos. Valida tipos y tamaños mientras lee,
+// así un cuerpo inválido o demasiado grande se rechaza sin construirlo completo.
+// Los valores se convierten con BookItemJson.readValue, así la API y la importación guardan
+// igual los objetos y arreglos anidados: como string JSON
+public final class BookJsonDecoder {
+
+    public static final int MAX_BODY_CHARS = 16 * 1024;
+    public static final int MAX_FIELDS = 32;
+    public static final int MAX_FIELD_NAME_LENGTH = 64;
+    public static final int MAX_STRING_LENGTH = 4096;
+    public static final int MAX_DEPTH = 8;
+
+    // Campos del libro que deben ser texto (o null)
+    private static final Set<String> STRING_FIELDS = Set.of(
+            "title", "author", "prestado_a", "email", "prestado_fecha", "retorno_fecha");
+
+    // Campos que nunca se aceptan desde el cliente
+    private static final Set<String> IGNORED_FIELDS = Set.of("id", BorrowerKeys.ATTRIBUTE, BorrowerKeys.NAME_ATTRIBUTE);
+
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .streamReadConstraints(StreamReadConstraints.builder()
+                    .maxNestingDepth(MAX_DEPTH)
+                    .maxStringLength(MAX_STRING_LENGTH)
+                    .maxNumberLength(64)
+                    .build())
+            .build();
+
+    private final Map<String, AttributeValue> item = new HashMap<>();
+    // Campos que venían como objeto o arreglo y se guardan como string JSON
+    private final Set<String> jsonFields = new HashSet<>();
+
+    private BookJsonDecoder() {
+    }
+
+    // Libro nuevo: los campos null se omiten
+    public static BookJsonDecoder decodeItem(String body) {
+        BookJsonDecoder decoder = new BookJsonDecoder();
+        decoder.decode(body, false);
+        return decoder;
+    }
+
+    // Actualización: los campos null quedan como NULL y UpdateBookLambdaHandler los quita del libro
+    public static BookJsonDecoder decodeUpdates(String body) {
+        BookJsonDecoder decoder = new BookJsonDecoder();
+        decoder.decode(body, true);
+        return decoder;
+    }
+
+    public Map<String, AttributeValue> getItem() {
+        return item;
+    }
+
+    // Escribe el item como respuesta; los campos anidados se escriben como JSON sin volver a analizarlos
+    public void writeItem(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            AttributeValue value = entry.getValue();
+            generator.writeFieldName(entry.getKey());
+            if (jsonFields.contains(entry.getKey())) {
+                generator.writeRawValue(value.s());
+            } else if (value.s() != null) {
+                generator.writeString(value.s());
+            } else if (value.n() != null) {
+                generator.writeNumber(value.n());
+            } else if (value.bool() != null) {
+                generator.writeBoolean(value.bool());
+            } else {
+                generator.writeNull();
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private void decode(String body, boolean keepNulls) {
+        if (body == null || body.isEmpty()) {
+            throw new InvalidBookJsonException("Request body is required");
+        }
+        // API Gateway entrega el cuerpo completo; el límite evita analizar cuerpos demasiado grandes
+        if (body.length() > MAX_BODY_CHARS) {
+            throw new InvalidBookJsonException("Request body exceeds " + MAX_BODY_CHARS + " characters");
+        }
+
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new InvalidBookJsonException("Request body must be a JSON object");
+            }
+
+            int fields = 0;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                if (++fields > MAX_FIELDS) {
+                    throw new InvalidBookJsonException("Book has more than " + MAX_FIELDS + " fields");
+                }
+                if (parser.getTextLength() > MAX_FIELD_NAME_LENGTH) {
+                    throw new InvalidBookJsonException("Field name exceeds " + MAX_FIELD_NAME_LENGTH + " characters");
+                }
+
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if (IGNORED_FIELDS.contains(name)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (STRING_FIELDS.contains(name) && token != JsonToken.VALUE_STRING && token != JsonToken.VALUE_NULL) {
+                    throw new InvalidBookJsonException("Field " + name + " must be a string");
+                }
+
+                AttributeValue value = token != JsonToken.VALUE_NULL ? BookItemJson.readValue(parser) : null;
+                if (value != null) {
+                    if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                        if (value.s().length() > MAX_STRING_LENGTH) {
+                            throw new InvalidBookJsonException("Nested value exceeds " + MAX_STRING_LENGTH + " characters");
+                        }
+                        jsonFields.add(name);
+                    }
+                    item.put(name, value);
+                } else if (keepNulls) {
+                    item.put(name, AttributeValue.builder().nul(true).build());
+                }
+            }
+
+            if (parser.currentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                throw new InvalidBookJsonException("Request body must be a single JSON object");
+            }
+
+        } catch (JsonProcessingException e) {
+            // Incluye los límites de profundidad y de largo de strings del parser
+            throw new InvalidBookJsonException("Invalid request body: " + e.getOriginalMessage(), e);
+        } catch (IOException e) {
+            throw new InvalidBookJsonException("Invalid request body: " + e.getMessage(), e);
+        }
+    }
+}
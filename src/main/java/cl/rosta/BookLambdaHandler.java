@@ -5,12 +5,19 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.Put;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
 
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -18,43 +25,78 @@ import java.util.UUID;
 public class BookLambdaHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     
     private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
     private final ObjectMapper objectMapper;
+    private final MetricsSink metricsSink;
+    private final SearchIndex searchIndex;
     
     public BookLambdaHandler() {
-        this.dynamoDbClient = DynamoDbClient.builder()
-                .region(Region.US_EAST_1)
-                .build();
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build(), new StdoutMetricsSink());
+    }
+    
+    BookLambdaHandler(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, MetricsSink metricsSink) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
         this.objectMapper = new ObjectMapper();
+        this.metricsSink = metricsSink;
+        this.searchIndex = new SearchIndex(dynamoDbClient, retryPolicy);
     }
     
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
+        RequestMetrics metrics = RequestMetrics.start("POST /book", event.getBody());
+        APIGatewayProxyResponseEvent response = processRequest(event, context, metrics);
+        metrics.finish(response);
+        metricsSink.emit(metrics);
+        return response;
+    }
+    
+    private APIGatewayProxyResponseEvent processRequest(APIGatewayProxyRequestEvent event, Context context, RequestMetrics metrics) {
         try {
-        	// Analizar el libro recibido del cuerpo de la solicitud
-            Map<String, Object> book = objectMapper.readValue(event.getBody(), Map.class);
+        	// Leer el libro del cuerpo directamente al formato AttributeValue de DynamoDB
+            // (el decodificador ignora id, borrower_key y borrower_name enviados por el cliente)
+            BookJsonDecoder book = BookJsonDecoder.decodeItem(event.getBody());
+            Map<String, AttributeValue> item = book.getItem();
             
             // Agregar UUID al libro (el ID)
-            book.put("id", UUID.randomUUID().toString());
+            item.put("id", AttributeValue.builder().s(UUID.randomUUID().toString()).build());
             
-            // Convertir al formato AttributeValue de DynamoDB
-            Map<String, AttributeValue> item = convertToAttributeValueMap(book);
+            // Las claves del prestatario se calculan aquí
+            String borrowerKey = BorrowerKeys.of(item);
+            if (borrowerKey != null) {
+                item.put(BorrowerKeys.ATTRIBUTE, AttributeValue.builder().s(borrowerKey).build());
+            }
+            String borrowerName = BorrowerKeys.nameOf(item);
+            if (borrowerName != null) {
+                item.put(BorrowerKeys.NAME_ATTRIBUTE, AttributeValue.builder().s(borrowerName).build());
+            }
             
             // Insertar el elemento en DynamoDB
-            PutItemRequest putItemRequest = PutItemRequest.builder()
-                    .tableName("books")
-                    .item(item)
-                    .build();
+            saveBook(item, borrowerKey, metrics);
+            metrics.addItems(1);
             
-            dynamoDbClient.putItem(putItemRequest);
+            // Indexar título, autor y prestatario para GET /book/search
+            searchIndex.indexQuietly(item.get("id").s(), null, item, context, metrics);
             
             // Devolver respuesta de exito
             APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
             response.setStatusCode(201);
-            response.setBody(objectMapper.writeValueAsString(book));
+            response.setBody(writeBook(book));
             return response;
                     
+        } catch (InvalidBookJsonException error) {
+            // Cuerpo inválido o demasiado grande
+            return createBadRequestResponse(error.getMessage());
+            
         } catch (Exception error) {
             context.getLogger().log("Error: " + error.getMessage());
+            metrics.recordError(error);
+            
+            // DynamoDB sigue limitando las llamadas: pedir al cliente que reintente más tarde
+            ThrottledException throttled = ThrottledException.find(error);
+            if (throttled != null) {
+                return createTooManyRequestsResponse(throttled.getRetryAfterSeconds());
+            }
             
             // Crear mapa de respuestas de error
             Map<String, String> errorMap = new HashMap<>();
@@ -75,29 +117,71 @@ public class BookLambdaHandler implements RequestHandler<APIGatewayProxyRequestE
         }
     }
     
-    private Map<String, AttributeValue> convertToAttributeValueMap(Map<String, Object> map) {
-        Map<String, AttributeValue> result = new HashMap<>();
-        
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            String key = entry.getKey();
-            Object value = entry.getValue();
+    private void saveBook(Map<String, AttributeValue> item, String borrowerKey, RequestMetrics metrics) {
+        if (borrowerKey == null) {
+            PutItemRequest putItemRequest = PutItemRequest.builder()
+                    .tableName("books")
+                    .item(item)
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                    .build();
             
-            if (value instanceof String) {
-                result.put(key, AttributeValue.builder().s((String) value).build());
-            } else if (value instanceof Number) {
-                result.put(key, AttributeValue.builder().n(value.toString()).build());
-            } else if (value instanceof Boolean) {
-                result.put(key, AttributeValue.builder().bool((Boolean) value).build());
-            } else if (value != null) {
-            	// Para objetos complejos, convertir a string
-                try {
-                    result.put(key, AttributeValue.builder().s(objectMapper.writeValueAsString(value)).build());
-                } catch (Exception e) {
-                    result.put(key, AttributeValue.builder().s(value.toString()).build());
-                }
-            }
+            metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.putItem(putItemRequest), PutItemResponse::consumedCapacity);
+            return;
         }
         
-        return result;
+        // Insertar el libro y sumar el préstamo activo del prestatario en una sola transacción
+        AttributeValue label = item.get("prestado_a");
+        TransactWriteItemsRequest transactWriteItemsRequest = TransactWriteItemsRequest.builder()
+                .transactItems(
+                        TransactWriteItem.builder()
+                                .put(Put.builder().tableName("books").item(item).build())
+                                .build(),
+                        TransactWriteItem.builder()
+                                .update(LoanHistory.activeLoansUpdate(borrowerKey, label != null ? label.s() : null, 1))
+                                .build())
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+        
+        TransactWriteItemsResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.transactWriteItems(transactWriteItemsRequest), r -> null);
+        response.consumedCapacity().forEach(metrics::addConsumedCapacity);
+    }
+    
+    private String writeBook(BookJsonDecoder book) throws Exception {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            book.writeItem(generator);
+        }
+        return writer.toString();
+    }
+    
+    private APIGatewayProxyResponseEvent createBadRequestResponse(String message) {
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", message);
+            
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(400);
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+            return response;
+        } catch (Exception e) {
+            APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+            fallbackResponse.setStatusCode(400);
+            fallbackResponse.setBody("{\"message\": \"Bad request\"}");
+            return fallbackResponse;
+        }
+    }
+    
+    private APIGatewayProxyResponseEvent createTooManyRequestsResponse(long retryAfterSeconds) {
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+        response.setStatusCode(429);
+        response.setHeaders(Map.of("Retry-After", String.valueOf(retryAfterSeconds)));
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Too many requests, please retry later");
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+        } catch (Exception e) {
+            response.setBody("{\"message\": \"Too many requests\"}");
+        }
+        return response;
     }
 }
\ No newline at end of file
@@ -0,0 +1,196 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Exporta la tabla books a NDJSON (opcionalmente gzip) en disco local o S3.
+// Cada segmento del scan paralelo corre en su propio hilo y entrega los items a una cola acotada;
+// un único escritor los serializa, así la memoria queda acotada y los scans se frenan si el escritor no da abasto
+public class BooksExportJob implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+
+    private static final int DEFAULT_SEGMENTS = 8;
+    private static final int QUEUE_CAPACITY = 2000;
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    // Marca de fin de segmento
+    private static final Map<String, AttributeValue> END_OF_SEGMENT = Collections.emptyMap();
+
+    private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
+    private final BookFileStorage storage;
+    private final ObjectMapper objectMapper;
+
+    public BooksExportJob() {
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build(), new BookFileStorage());
+    }
+
+    BooksExportJob(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, BookFileStorage storage) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
+        this.storage = storage;
+        this.objectMapper = new ObjectMapper();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BooksExportJob <destination (path or s3://bucket/key)[.gz]> [segments]");
+            System.exit(1);
+        }
+        int segments = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SEGMENTS;
+        Map<String, Object> summary = new BooksExportJob().export(args[0], segments);
+        System.out.println(new ObjectMapper().writeValueAsString(summary));
+        System.exit(0);
+    }
+
+    @Override
+    public Map<String, Object> handleRequest(Map<String, Object> input, Context context) {
+        String destination = (String) input.get("destination");
+        if (destination == null || destination.isEmpty()) {
+            throw new IllegalArgumentException("destination is required");
+        }
+        int segments = input.containsKey("segments") ? ((Number) input.get("segments")).intValue() : DEFAULT_SEGMENTS;
+
+        try {
+            Map<String, Object> summary = export(destination, segments);
+            context.getLogger().log("Export finished: " + objectMapper.writeValueAsString(summary));
+            return summary;
+        } catch (Exception e) {
+            context.getLogger().log("Error: " + e.getMessage());
+            throw new RuntimeException("Error exporting books: " + e.getMessage(), e);
+        }
+    }
+
+    public Map<String, Object> export(String destination, int segments) throws Exception {
+        long start = System.nanoTime();
+        BlockingQueue<Map<String, AttributeValue>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicReference<Exception> scanFailure = new AtomicReference<>();
+
+        ExecutorService scanners = Executors.newFixedThreadPool(segments);
+        try {
+            for (int segment = 0; segment < segments; segment++) {
+                int currentSegment = segment;
+                scanners.submit(() -> {
+                    try {
+                        scanSegment(currentSegment, segments, queue, cancelled);
+                        putUntilCancelled(queue, END_OF_SEGMENT, cancelled);
+                    } catch (Exception e) {
+                        scanFailure.compareAndSet(null, e);
+                    } catch (Throwable e) {
+                        // Un Error tampoco puede dejar al escritor esperando un END_OF_SEGMENT que no llega
+                        scanFailure.compareAndSet(null, new ExecutionException("Scan of segment " + currentSegment + " failed", e));
+                        throw e;
+                    }
+                });
+            }
+
+            long written = writeItems(destination, segments, queue, cancelled, scanFailure);
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("destination", destination);
+            summary.put("segments", segments);
+            summary.put("items", written);
+            summary.put("seconds", (System.nanoTime() - start) / 1e9);
+            return summary;
+
+        } finally {
+            cancelled.set(true);
+            scanners.shutdownNow();
+        }
+    }
+
+    private long writeItems(String destination, int segments, BlockingQueue<Map<String, AttributeValue>> queue,
+                            AtomicBoolean cancelled, AtomicReference<Exception> scanFailure) throws Exception {
+        long written = 0;
+        int finishedSegments = 0;
+
+        // Si algo falla, cerrar sin commit() descarta la salida: nunca se publica una exportación parcial
+        try (StagedOutputStream out = storage.openOutput(destination);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            // Un objeto JSON por línea
+            generator.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+
+            while (finishedSegments < segments) {
+                if (scanFailure.get() != null) {
+                    throw scanFailure.get();
+                }
+
+                Map<String, AttributeValue> item = queue.poll(OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    continue;
+                }
+                if (item == END_OF_SEGMENT) {
+                    finishedSegments++;
+                    continue;
+                }
+                BookItemJson.write(generator, item);
+                written++;
+            }
+
+            generator.writeRaw('\n');
+            generator.flush();
+            out.commit();
+
+        } catch (Exception e) {
+            // Detener los scans para que no queden bloqueados en la cola
+            cancelled.set(true);
+            throw e;
+        }
+
+        return written;
+    }
+
+    private void scanSegment(int segment, int totalSegments, BlockingQueue<Map<String, AttributeValue>> queue,
+                             AtomicBoolean cancelled) {
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+
+        do {
+            ScanRequest.Builder scanRequestBuilder = ScanRequest.builder()
+                    .tableName("books")
+                    .segment(segment)
+                    .totalSegments(totalSegments);
+            if (lastEvaluatedKey != null) {
+                scanRequestBuilder.exclusiveStartKey(lastEvaluatedKey);
+            }
+            ScanRequest scanRequest = scanRequestBuilder.build();
+
+            ScanResponse response = retryPolicy.execute(() -> dynamoDbClient.scan(scanRequest));
+
+            for (Map<String, AttributeValue> item : response.items()) {
+                if (!putUntilCancelled(queue, item, cancelled)) {
+                    return;
+                }
+            }
+
+            lastEvaluatedKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                    ? response.lastEvaluatedKey() : null;
+
+        } while (lastEvaluatedKey != null && !cancelled.get());
+    }
+
+    // Bloquea mientras la cola esté llena (back-pressure), salvo que la exportación se haya cancelado
+    private static boolean putUntilCancelled(BlockingQueue<Map<String, AttributeValue>> queue,
+                                             Map<String, AttributeValue> item, AtomicBoolean cancelled) {
+        try {
+            while (!queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancelled.get()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Importa a la tabla books un archivo NDJSON generado por BooksExportJob.
+// Un lector arma lotes de 25 items (límite de BatchWriteItem) y los entrega a una cola acotada;
+// varios escritores los envían respetando una tasa máxima de items por segundo.
+// El throttling no corta la importación: los escritores bajan la tasa y esperan hasta que DynamoDB acepte.
+// Solo se calcula borrower_key; los agregados y el índice de búsqueda se completan después con
+// BorrowerBackfillJob y SearchReindexJob
+public class BooksImportJob implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+
+    private static final int BATCH_SIZE = 25;
+    private static final int DEFAULT_WRITERS = 4;
+    private static final double DEFAULT_MAX_ITEMS_PER_SECOND = 1000;
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 1000;
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    // Marca de fin de archivo, una por escritor
+    private static final List<WriteRequest> END_OF_INPUT = Collections.emptyList();
+
+    private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
+    private final BookFileStorage storage;
+    private final ObjectMapper objectMapper;
+    private final long maxBackoffMillis;
+
+    public BooksImportJob() {
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build(), new BookFileStorage());
+    }
+
+    BooksImportJob(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, BookFileStorage storage) {
+        this(dynamoDbClient, retryPolicy, storage, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    BooksImportJob(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, BookFileStorage storage, long maxBackoffMillis) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
+        this.storage = storage;
+        this.objectMapper = new ObjectMapper();
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BooksImportJob <source (path or s3://bucket/key)[.gz]> [writers] [maxItemsPerSecond]");
+            System.exit(1);
+        }
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WRITERS;
+        double maxItemsPerSecond = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_MAX_ITEMS_PER_SECOND;
+        Map<String, Object> summary = new BooksImportJob().importBooks(args[0], writers, maxItemsPerSecond);
+        System.out.println(new ObjectMapper().writeValueAsString(summary));
+        System.exit(0);
+    }
+
+    @Override
+    public Map<String, Object> handleRequest(Map<String, Object> input, Context context) {
+        String source = (String) input.get("source");
+        if (source == null || source.isEmpty()) {
+            throw new IllegalArgumentException("source is required");
+        }
+        int writers = input.containsKey("writers") ? ((Number) input.get("writers")).intValue() : DEFAULT_WRITERS;
+        double maxItemsPerSecond = input.containsKey("maxItemsPerSecond")
+                ? ((Number) input.get("maxItemsPerSecond")).doubleValue() : DEFAULT_MAX_ITEMS_PER_SECOND;
+
+        try {
+            Map<String, Object> summary = importBooks(source, writers, maxItemsPerSecond);
+            context.getLogger().log("Import finished: " + objectMapper.writeValueAsString(summary));
+            return summary;
+        } catch (Exception e) {
+            context.getLogger().log("Error: " + e.getMessage());
+            throw new RuntimeException("Error importing books: " + e.getMessage(), e);
+        }
+    }
+
+    public Map<String, Object> importBooks(String source, int writers, double maxItemsPerSecond) throws Exception {
+        long start = System.nanoTime();
+        BlockingQueue<List<WriteRequest>> queue = new ArrayBlockingQueue<>(writers * 2);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicReference<Exception> writeFailure = new AtomicReference<>();
+        AtomicLong writtenItems = new AtomicLong();
+
+        // Control de tasa: el limitador parte activo en la tasa pedida y la reduce si hay throttling
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(1, maxItemsPerSecond, BATCH_SIZE);
+        rateLimiter.enable(maxItemsPerSecond);
+
+        ExecutorService writerPool = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                futures.add(writerPool.submit(() -> {
+                    try {
+                        writeBatches(queue, rateLimiter, cancelled, writtenItems);
+                    } catch (Exception e) {
+                        writeFailure.compareAndSet(null, e);
+                        cancelled.set(true);
+                    } catch (Throwable e) {
+                        // Un Error también cancela, para que el lector no quede esperando espacio en la cola
+                        writeFailure.compareAndSet(null, new ExecutionException("Writer failed", e));
+                        cancelled.set(true);
+                        throw e;
+                    }
+                }));
+            }
+
+            long readItems = readBatches(source, writers, queue, cancelled, writeFailure);
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            if (writeFailure.get() != null) {
+                throw writeFailure.get();
+            }
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("source", source);
+            summary.put("writers", writers);
+            summary.put("items", readItems);
+            summary.put("written", writtenItems.get());
+            summary.put("seconds", (System.nanoTime() - start) / 1e9);
+            return summary;
+
+        } finally {
+            cancelled.set(true);
+            writerPool.shutdownNow();
+        }
+    }
+
+    private long readBatches(String source, int writers, BlockingQueue<List<WriteRequest>> queue,
+                             AtomicBoolean cancelled, AtomicReference<Exception> writeFailure) throws Exception {
+        long readItems = 0;
+
+        try (InputStream in = storage.openInput(source);
+             JsonParser parser = objectMapper.getFactory().createParser(in)) {
+
+            List<WriteRequest> batch = new ArrayList<>(BATCH_SIZE);
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalStateException("Expected JSON object at line " + parser.getCurrentLocation().getLineNr());
+                }
+
+                Map<String, AttributeValue> item = BookItemJson.read(parser);
+                // Mismo cálculo que al crear o actualizar, para que el libro aparezca en borrower_key-index y borrower_name-index
+                String borrowerKey = BorrowerKeys.of(item);
+                if (borrowerKey != null) {
+                    item.put(BorrowerKeys.ATTRIBUTE, AttributeValue.builder().s(borrowerKey).build());
+                } else {
+                    item.remove(BorrowerKeys.ATTRIBUTE);
+                }
+                String borrowerName = BorrowerKeys.nameOf(item);
+                if (borrowerName != null) {
+                    item.put(BorrowerKeys.NAME_ATTRIBUTE, AttributeValue.builder().s(borrowerName).build());
+                } else {
+                    item.remove(BorrowerKeys.NAME_ATTRIBUTE);
+                }
+                batch.add(WriteRequest.builder().putRequest(PutRequest.builder().item(item).build()).build());
+                readItems++;
+
+                if (batch.size() == BATCH_SIZE) {
+                    if (!putUntilCancelled(queue, batch, cancelled)) {
+                        break;
+                    }
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                putUntilCancelled(queue, batch, cancelled);
+            }
+
+        } catch (Exception e) {
+            cancelled.set(true);
+            throw e;
+
+        } finally {
+            for (int i = 0; i < writers; i++) {
+                putUntilCancelled(queue, END_OF_INPUT, cancelled);
+            }
+        }
+
+        if (writeFailure.get() != null) {
+            throw writeFailure.get();
+        }
+        return readItems;
+    }
+
+    private void writeBatches(BlockingQueue<List<WriteRequest>> queue, AdaptiveRateLimiter rateLimiter,
+                              AtomicBoolean cancelled, AtomicLong writtenItems) throws InterruptedException {
+        while (!cancelled.get()) {
+            List<WriteRequest> batch = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (batch == null) {
+                continue;
+            }
+            if (batch == END_OF_INPUT) {
+                return;
+            }
+            if (!writeBatch(batch, rateLimiter, cancelled)) {
+                return;
+            }
+            writtenItems.addAndGet(batch.size());
+        }
+    }
+
+    // Reintenta sin límite de intentos; devuelve false solo si la importación se canceló
+    private boolean writeBatch(List<WriteRequest> batch, AdaptiveRateLimiter rateLimiter,
+                               AtomicBoolean cancelled) throws InterruptedException {
+        List<WriteRequest> pending = batch;
+
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            if (cancelled.get()) {
+                return false;
+            }
+
+            Thread.sleep(rateLimiter.reserve(pending.size(), Long.MAX_VALUE));
+
+            BatchWriteItemRequest batchWriteItemRequest = BatchWriteItemRequest.builder()
+                    .requestItems(Map.of("books", pending))
+                    .build();
+            BatchWriteItemResponse response;
+            try {
+                response = retryPolicy.execute(() -> dynamoDbClient.batchWriteItem(batchWriteItemRequest));
+            } catch (ThrottledException e) {
+                // Reintentos agotados o circuito abierto (la política ya esperó su backoff): bajar la tasa
+                // y volver a intentar el mismo lote
+                rateLimiter.onThrottle();
+                Thread.sleep(backoffMillis(attempt));
+                continue;
+            }
+
+            List<WriteRequest> unprocessed = response.hasUnprocessedItems()
+                    ? response.unprocessedItems().getOrDefault("books", Collections.emptyList())
+                    : Collections.emptyList();
+
+            if (unprocessed.isEmpty()) {
+                rateLimiter.onSuccess();
+            } else {
+                // Items sin procesar equivalen a un throttle parcial: bajar la tasa y esperar
+                rateLimiter.onThrottle();
+                Thread.sleep(backoffMillis(attempt));
+            }
+            pending = unprocessed;
+        }
+        return true;
+    }
+
+    private long backoffMillis(int attempt) {
+        return ThreadLocalRandom.current().nextLong(Math.min(maxBackoffMillis, 25L << Math.min(attempt, 6)) + 1);
+    }
+
+    private static boolean putUntilCancelled(BlockingQueue<List<WriteRequest>> queue, List<WriteRequest> batch,
+                                             AtomicBoolean cancelled) {
+        try {
+            while (!queue.offer(batch, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancelled.get()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.*;
+
+// Completa los datos derivados del prestatario para los préstamos que no los tienen
+// (creados antes de los índices borrower_key-index y borrower_name-index o cargados con BooksImportJob):
+// - guarda borrower_key y borrower_name en cada libro que no los tenga (o los tenga desactualizados)
+// - recalcula active_loans y la marca de active-borrowers-index de cada prestatario
+// - informa los préstamos con retorno_fecha que no es texto: no se pueden reparar solos y el filtro
+//   por fecha del notificador y de due_before nunca los incluye
+// Los contadores se reescriben con el valor contado en el scan, así que conviene ejecutarlo
+// sin escrituras en curso; se puede repetir sin problema
+public class BorrowerBackfillJob implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+
+    // IDs de libros con retorno_fecha inválido que se incluyen en el resumen
+    private static final int MAX_REPORTED_IDS = 100;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
+    private final ObjectMapper objectMapper;
+
+    public BorrowerBackfillJob() {
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build());
+    }
+
+    BorrowerBackfillJob(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
+        this.objectMapper = new ObjectMapper();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Object> summary = new BorrowerBackfillJob().backfill();
+        System.out.println(new ObjectMapper().writeValueAsString(summary));
+        System.exit(0);
+    }
+
+    @Override
+    public Map<String, Object> handleRequest(Map<String, Object> input, Context context) {
+        try {
+            Map<String, Object> summary = backfill();
+            context.getLogger().log("Borrower backfill finished: " + objectMapper.writeValueAsString(summary));
+            return summary;
+        } catch (Exception e) {
+            context.getLogger().log("Error: " + e.getMessage());
+            throw new RuntimeException("Error backfilling borrowers: " + e.getMessage(), e);
+        }
+    }
+
+    public Map<String, Object> backfill() {
+        long start = System.nanoTime();
+        Map<String, Integer> activeLoans = new HashMap<>();
+        Map<String, String> labels = new HashMap<>();
+        long books = 0;
+        long keysUpdated = 0;
+        long conflicts = 0;
+        long invalidDueDates = 0;
+        List<String> invalidDueDateIds = new ArrayList<>();
+
+        // 1. Recorrer books, corregir borrower_key y borrower_name y contar los préstamos activos por prestatario
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            ScanRequest.Builder scanRequestBuilder = ScanRequest.builder()
+                    .tableName("books")
+                    .projectionExpression("#id, #email, #borrower, #borrowerKey, #borrowerName, #dueDate")
+                    .expressionAttributeNames(Map.of(
+                            "#id", "id", "#email", "email", "#borrower", "prestado_a", "#borrowerKey", BorrowerKeys.ATTRIBUTE,
+                            "#borrowerName", BorrowerKeys.NAME_ATTRIBUTE, "#dueDate", "retorno_fecha"));
+            if (lastEvaluatedKey != null) {
+                scanRequestBuilder.exclusiveStartKey(lastEvaluatedKey);
+            }
+            ScanRequest scanRequest = scanRequestBuilder.build();
+            ScanResponse response = retryPolicy.execute(() -> dynamoDbClient.scan(scanRequest));
+
+            for (Map<String, AttributeValue> book : response.items()) {
+                books++;
+                AttributeValue dueDate = book.get("retorno_fecha");
+                if (dueDate != null && dueDate.s() == null) {
+                    invalidDueDates++;
+                    if (invalidDueDateIds.size() < MAX_REPORTED_IDS) {
+                        invalidDueDateIds.add(book.get("id").s());
+                    }
+                }
+
+                String borrowerKey = BorrowerKeys.of(book);
+                String borrowerName = BorrowerKeys.nameOf(book);
+                String storedKey = stringValue(book.get(BorrowerKeys.ATTRIBUTE));
+                String storedName = stringValue(book.get(BorrowerKeys.NAME_ATTRIBUTE));
+
+                if (!Objects.equals(borrowerKey, storedKey) || !Objects.equals(borrowerName, storedName)) {
+                    if (!updateBorrowerKeys(book.get("id"), storedKey, borrowerKey, storedName, borrowerName)) {
+                        // Otra solicitud cambió el libro: se cuenta con lo que quedó guardado
+                        conflicts++;
+                        borrowerKey = currentBorrowerKey(book.get("id"));
+                    } else {
+                        keysUpdated++;
+                    }
+                }
+
+                if (borrowerKey != null) {
+                    activeLoans.merge(borrowerKey, 1, Integer::sum);
+                    AttributeValue label = book.get("prestado_a");
+                    if (label != null && label.s() != null) {
+                        labels.putIfAbsent(borrowerKey, label.s());
+                    }
+                }
+            }
+
+            lastEvaluatedKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                    ? response.lastEvaluatedKey() : null;
+        } while (lastEvaluatedKey != null);
+
+        // 2. Corregir los agregados que ya existen en cada fragmento de prestatarios
+        // (incluye los prestatarios que quedaron sin préstamos)
+        long rollupsUpdated = 0;
+        Set<String> pending = new HashSet<>(activeLoans.keySet());
+        for (int shard = 0; shard < LoanHistory.ROLLUP_SHARDS; shard++) {
+            String partition = LoanHistory.partition(LoanHistory.DIMENSION_BORROWER, shard);
+            lastEvaluatedKey = null;
+            do {
+                QueryRequest.Builder queryRequestBuilder = QueryRequest.builder()
+                        .tableName(LoanHistory.ROLLUPS_TABLE)
+                        .keyConditionExpression("#partition = :partition")
+                        .projectionExpression("#key, #active, #activeFlag")
+                        .expressionAttributeNames(Map.of(
+                                "#partition", LoanHistory.PARTITION_ATTRIBUTE, "#key", "key", "#active", "active_loans",
+                                "#activeFlag", LoanHistory.ACTIVE_ATTRIBUTE))
+                        .expressionAttributeValues(Map.of(
+                                ":partition", AttributeValue.builder().s(partition).build()));
+                if (lastEvaluatedKey != null) {
+                    queryRequestBuilder.exclusiveStartKey(lastEvaluatedKey);
+                }
+                QueryRequest queryRequest = queryRequestBuilder.build();
+                QueryResponse response = retryPolicy.execute(() -> dynamoDbClient.query(queryRequest));
+
+                for (Map<String, AttributeValue> rollup : response.items()) {
+                    String borrowerKey = rollup.get("key").s();
+                    pending.remove(borrowerKey);
+
+                    int expected = activeLoans.getOrDefault(borrowerKey, 0);
+                    AttributeValue active = rollup.get("active_loans");
+                    long current = active != null && active.n() != null ? Long.parseLong(active.n()) : 0;
+                    boolean flagged = rollup.containsKey(LoanHistory.ACTIVE_ATTRIBUTE);
+                    if (current != expected || flagged != (expected > 0)) {
+                        setActiveLoans(borrowerKey, expected, null);
+                        rollupsUpdated++;
+                    }
+                }
+
+                lastEvaluatedKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                        ? response.lastEvaluatedKey() : null;
+            } while (lastEvaluatedKey != null);
+        }
+
+        // 3. Crear los agregados de los prestatarios que todavía no tenían
+        for (String borrowerKey : pending) {
+            setActiveLoans(borrowerKey, activeLoans.get(borrowerKey), labels.get(borrowerKey));
+            rollupsUpdated++;
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("books", books);
+        summary.put("borrowerKeysUpdated", keysUpdated);
+        summary.put("conflicts", conflicts);
+        summary.put("activeBorrowers", activeLoans.size());
+        summary.put("rollupsUpdated", rollupsUpdated);
+        summary.put("invalidDueDates", invalidDueDates);
+        summary.put("invalidDueDateIds", invalidDueDateIds);
+        summary.put("seconds", (System.nanoTime() - start) / 1e9);
+        return summary;
+    }
+
+    // Guarda (o quita) borrower_key y borrower_name solo si siguen con los valores leídos en el scan
+    private boolean updateBorrowerKeys(AttributeValue id, String storedKey, String borrowerKey,
+                                       String storedName, String borrowerName) {
+        Map<String, String> names = new HashMap<>();
+        names.put("#id", "id");
+        names.put("#borrowerKey", BorrowerKeys.ATTRIBUTE);
+        names.put("#borrowerName", BorrowerKeys.NAME_ATTRIBUTE);
+        Map<String, AttributeValue> values = new HashMap<>();
+
+        List<String> setClauses = new ArrayList<>();
+        List<String> removeClauses = new ArrayList<>();
+        List<String> conditions = new ArrayList<>();
+        conditions.add("attribute_exists(#id)");
+        addKeyUpdate("#borrowerKey", ":borrowerKey", storedKey, borrowerKey, setClauses, removeClauses, conditions, values);
+        addKeyUpdate("#borrowerName", ":borrowerName", storedName, borrowerName, setClauses, removeClauses, conditions, values);
+
+        List<String> actions = new ArrayList<>();
+        if (!setClauses.isEmpty()) {
+            actions.add("SET " + String.join(", ", setClauses));
+        }
+        if (!removeClauses.isEmpty()) {
+            actions.add("REMOVE " + String.join(", ", removeClauses));
+        }
+        String updateExpression = String.join(" ", actions);
+        String condition = String.join(" AND ", conditions);
+
+        UpdateItemRequest.Builder updateItemRequestBuilder = UpdateItemRequest.builder()
+                .tableName("books")
+                .key(Map.of("id", id))
+                .updateExpression(updateExpression)
+                .conditionExpression(condition)
+                .expressionAttributeNames(names);
+        if (!values.isEmpty()) {
+            updateItemRequestBuilder.expressionAttributeValues(values);
+        }
+        UpdateItemRequest updateItemRequest = updateItemRequestBuilder.build();
+
+        try {
+            retryPolicy.execute(() -> dynamoDbClient.updateItem(updateItemRequest));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    private static void addKeyUpdate(String name, String value, String stored, String computed, List<String> setClauses,
+                                     List<String> removeClauses, List<String> conditions, Map<String, AttributeValue> values) {
+        if (computed != null) {
+            setClauses.add(name + " = " + value);
+            values.put(value, AttributeValue.builder().s(computed).build());
+        } else if (stored != null) {
+            removeClauses.add(name);
+        }
+
+        if (stored != null) {
+            conditions.add(name + " = " + value + "Stored");
+            values.put(value + "Stored", AttributeValue.builder().s(stored).build());
+        } else {
+            conditions.add("attribute_not_exists(" + name + ")");
+        }
+    }
+
+    private static String stringValue(AttributeValue value) {
+        return value != null ? value.s() : null;
+    }
+
+    private String currentBorrowerKey(AttributeValue id) {
+        GetItemRequest getItemRequest = GetItemRequest.builder()
+                .tableName("books")
+                .key(Map.of("id", id))
+                .consistentRead(true)
+                .build();
+        GetItemResponse response = retryPolicy.execute(() -> dynamoDbClient.getItem(getItemRequest));
+        return stringValue(response.item().get(BorrowerKeys.ATTRIBUTE));
+    }
+
+    // Reescribe active_loans y agrega o quita la marca del índice disperso de prestatarios activos
+    private void setActiveLoans(String borrowerKey, int activeLoans, String label) {
+        Map<String, String> names = new HashMap<>();
+        names.put("#active", "active_loans");
+        names.put("#activeFlag", LoanHistory.ACTIVE_ATTRIBUTE);
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":count", AttributeValue.builder().n(Integer.toString(activeLoans)).build());
+
+        List<String> setClauses = new ArrayList<>();
+        setClauses.add("#active = :count");
+        if (label != null) {
+            setClauses.add("#label = if_not_exists(#label, :label)");
+            names.put("#label", "label");
+            values.put(":label", AttributeValue.builder().s(label).build());
+        }
+
+        String updateExpression;
+        if (activeLoans > 0) {
+            setClauses.add("#activeFlag = :partition");
+            values.put(":partition", AttributeValue.builder().s(LoanHistory.partition(LoanHistory.DIMENSION_BORROWER, borrowerKey)).build());
+            updateExpression = "SET " + String.join(", ", setClauses);
+        } else {
+            updateExpression = "SET " + String.join(", ", setClauses) + " REMOVE #activeFlag";
+        }
+
+        UpdateItemRequest updateItemRequest = UpdateItemRequest.builder()
+                .tableName(LoanHistory.ROLLUPS_TABLE)
+                .key(LoanHistory.rollupKey(LoanHistory.DIMENSION_BORROWER, borrowerKey))
+                .updateExpression(updateExpression)
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(values)
+                .build();
+        retryPolicy.execute(() -> dynamoDbClient.updateItem(updateItemRequest));
+    }
+}
@@ -0,0 +1,47 @@
+package cl.rosta;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.Map;
+
+// Claves normalizadas del prestatario que guarda cada libro prestado:
+// - borrower_key: el email si existe, si no el nombre en prestado_a. Identifica al prestatario en
+//   books_rollups y en el notificador
+// - borrower_name: siempre el nombre en prestado_a, para encontrar por nombre a quien tiene email
+// Una clave con '@' se busca como email en borrower_key-index; cualquier otra, como nombre en borrower_name-index
+public final class BorrowerKeys {
+
+    // Atributos que guardan las claves en books y sus índices globales (clave de orden: id)
+    public static final String ATTRIBUTE = "borrower_key";
+    public static final String INDEX_NAME = "borrower_key-index";
+    public static final String NAME_ATTRIBUTE = "borrower_name";
+    public static final String NAME_INDEX_NAME = "borrower_name-index";
+
+    private BorrowerKeys() {
+    }
+
+    public static String of(Map<String, AttributeValue> item) {
+        String email = stringValue(item.get("email"));
+        if (email != null) {
+            return TextNormalizer.normalize(email);
+        }
+        return nameOf(item);
+    }
+
+    public static String nameOf(Map<String, AttributeValue> item) {
+        String name = stringValue(item.get("prestado_a"));
+        return name != null ? TextNormalizer.normalize(name) : null;
+    }
+
+    // Para una clave de la ruta ya normalizada: los emails tienen '@' y los nombres no
+    public static boolean isEmail(String key) {
+        return key.indexOf('@') >= 0;
+    }
+
+    private static String stringValue(AttributeValue value) {
+        if (value == null || value.s() == null || value.s().trim().isEmpty()) {
+            return null;
+        }
+        return value.s();
+    }
+}
@@ -5,26 +5,45 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 
+import java.time.LocalDate;
 import java.util.*;
 
 public class DeleteIdBookLambdaHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     
+    // Veces que se vuelve a leer el libro si otra solicitud lo modifica antes de eliminarlo
+    private static final int MAX_CONFLICT_RETRIES = 3;
+    
     private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
     private final ObjectMapper objectMapper;
+    private final MetricsSink metricsSink;
+    private final SearchIndex searchIndex;
     
     public DeleteIdBookLambdaHandler() {
-        this.dynamoDbClient = DynamoDbClient.builder()
-                .region(Region.US_EAST_1)
-                .build();
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build(), new StdoutMetricsSink());
+    }
+    
+    DeleteIdBookLambdaHandler(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, MetricsSink metricsSink) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
         this.objectMapper = new ObjectMapper();
+        this.metricsSink = metricsSink;
+        this.searchIndex = new SearchIndex(dynamoDbClient, retryPolicy);
     }
     
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
+        RequestMetrics metrics = RequestMetrics.start("DELETE /book/{id}", event.getBody());
+        APIGatewayProxyResponseEvent response = processRequest(event, context, metrics);
+        metrics.finish(response);
+        metricsSink.emit(metrics);
+        return response;
+    }
+    
+    private APIGatewayProxyResponseEvent processRequest(APIGatewayProxyRequestEvent event, Context context, RequestMetrics metrics) {
         try {
         	// Obtener el ID del libro a partir de los parámetros de la ruta
             Map<String, String> pathParameters = event.getPathParameters();
@@ -38,15 +57,37 @@ public class DeleteIdBookLambdaHandler implements RequestHandler<APIGatewayProxy
                 return createBadRequestResponse("Book ID is required");
             }
             
-            // Obtener el libro antes de eliminarlo (para devolverlo en la respuesta)
-            Map<String, Object> deletedBook = getBookById(bookId);
+            // Obtener el libro antes de eliminarlo (para devolverlo en la respuesta y registrarlo en el historial)
+            // y eliminarlo solo si no cambió desde la lectura; si cambió, se vuelve a leer
+            Map<String, AttributeValue> bookItem;
+            int attempt = 0;
+            while (true) {
+                bookItem = getBookItem(bookId, metrics);
+                
+                if (bookItem == null) {
+                    return createNotFoundResponse();
+                }
+                
+                // Eliminar el libro y registrar la devolución en el historial
+                if (returnBook(bookId, bookItem, metrics)) {
+                    break;
+                }
+                
+                if (++attempt >= MAX_CONFLICT_RETRIES) {
+                    return createConflictResponse();
+                }
+            }
             
-            if (deletedBook == null) {
-                return createNotFoundResponse();
+            // Si era el último préstamo activo del prestatario, sacarlo del índice de prestatarios activos
+            AttributeValue borrowerKey = bookItem.get(BorrowerKeys.ATTRIBUTE);
+            if (borrowerKey != null && borrowerKey.s() != null) {
+                clearInactiveBorrower(borrowerKey.s(), context, metrics);
             }
             
-            // Eliminar el libro
-            deleteBook(bookId);
+            // Quitar el libro del índice de búsqueda; la devolución ya quedó registrada aunque esto falle
+            searchIndex.indexQuietly(bookId, bookItem, null, context, metrics);
+            
+            Map<String, Object> deletedBook = convertFromAttributeValueMap(bookItem);
             
             // Devolver una respuesta de éxito con los datos del libro eliminado
             APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
@@ -61,6 +102,13 @@ public class DeleteIdBookLambdaHandler implements RequestHandler<APIGatewayProxy
                     
         } catch (Exception error) {
             context.getLogger().log("Error: " + error.getMessage());
+            metrics.recordError(error);
+            
+            // DynamoDB sigue limitando las llamadas: pedir al cliente que reintente más tarde
+            ThrottledException throttled = ThrottledException.find(error);
+            if (throttled != null) {
+                return createTooManyRequestsResponse(throttled.getRetryAfterSeconds());
+            }
             
             // Crear un mapa de respuestas de error
             Map<String, String> errorMap = new HashMap<>();
@@ -81,40 +129,62 @@ public class DeleteIdBookLambdaHandler implements RequestHandler<APIGatewayProxy
         }
     }
     
-    private Map<String, Object> getBookById(String bookId) {
+    private Map<String, AttributeValue> getBookItem(String bookId, RequestMetrics metrics) {
         try {
             GetItemRequest getItemRequest = GetItemRequest.builder()
                     .tableName("books")
                     .key(Map.of("id", AttributeValue.builder().s(bookId).build()))
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
                     .build();
             
-            GetItemResponse response = dynamoDbClient.getItem(getItemRequest);
+            GetItemResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.getItem(getItemRequest), GetItemResponse::consumedCapacity);
             
             if (response.item().isEmpty()) {
                 return null; // Libro no encontrado
             }
             
-            return convertFromAttributeValueMap(response.item());
+            metrics.addItems(1);
+            
+            return response.item();
             
         } catch (Exception e) {
             throw new RuntimeException("Error getting book by ID: " + e.getMessage(), e);
         }
     }
     
-    private void deleteBook(String bookId) {
+    private boolean returnBook(String bookId, Map<String, AttributeValue> bookItem, RequestMetrics metrics) {
         try {
-            DeleteItemRequest deleteItemRequest = DeleteItemRequest.builder()
-                    .tableName("books")
-                    .key(Map.of("id", AttributeValue.builder().s(bookId).build()))
+            // Eliminación, historial y agregados en una sola transacción
+            TransactWriteItemsRequest transactWriteItemsRequest = TransactWriteItemsRequest.builder()
+                    .transactItems(LoanHistory.buildReturnTransaction(bookId, bookItem, LocalDate.now(LoanHistory.ZONE)))
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
                     .build();
             
-            dynamoDbClient.deleteItem(deleteItemRequest);
+            TransactWriteItemsResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.transactWriteItems(transactWriteItemsRequest), r -> null);
+            response.consumedCapacity().forEach(metrics::addConsumedCapacity);
+            return true;
             
+        } catch (TransactionCanceledException e) {
+            // Otra solicitud eliminó o modificó el libro entre la lectura y la transacción
+            if (e.hasCancellationReasons() && "ConditionalCheckFailed".equals(e.cancellationReasons().get(0).code())) {
+                return false;
+            }
+            throw new RuntimeException("Error deleting book: " + e.getMessage(), e);
         } catch (Exception e) {
             throw new RuntimeException("Error deleting book: " + e.getMessage(), e);
         }
     }
     
+    // El libro ya se eliminó: si falla, el prestatario queda marcado como activo sin préstamos
+    // y el notificador solo hace una Query vacía por él
+    private void clearInactiveBorrower(String borrowerKey, Context context, RequestMetrics metrics) {
+        try {
+            LoanHistory.clearInactiveBorrower(dynamoDbClient, retryPolicy, borrowerKey, metrics);
+        } catch (Exception e) {
+            context.getLogger().log("Error clearing inactive borrower " + borrowerKey + ": " + e.getMessage());
+        }
+    }
+    
     private Map<String, Object> convertFromAttributeValueMap(Map<String, AttributeValue> attributeMap) {
         Map<String, Object> result = new HashMap<>();
         
@@ -174,6 +244,23 @@ public class DeleteIdBookLambdaHandler implements RequestHandler<APIGatewayProxy
         }
     }
     
+    private APIGatewayProxyResponseEvent createConflictResponse() {
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Book was modified concurrently, please retry");
+            
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(409);
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+            return response;
+        } catch (Exception e) {
+            APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+            fallbackResponse.setStatusCode(409);
+            fallbackResponse.setBody("{\"message\": \"Conflict\"}");
+            return fallbackResponse;
+        }
+    }
+    
     private APIGatewayProxyResponseEvent createBadRequestResponse(String message) {
         try {
             Map<String, String> errorMap = new HashMap<>();
@@ -190,4 +277,18 @@ public class DeleteIdBookLambdaHandler implements RequestHandler<APIGatewayProxy
             return fallbackResponse;
         }
     }
+    
+    private APIGatewayProxyResponseEvent createTooManyRequestsResponse(long retryAfterSeconds) {
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+        response.setStatusCode(429);
+        response.setHeaders(Map.of("Retry-After", String.valueOf(retryAfterSeconds)));
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Too many requests, please retry later");
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+        } catch (Exception e) {
+            response.setBody("{\"message\": \"Too many requests\"}");
+        }
+        return response;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package cl.rosta;
+
+// Recibe cada intento individual de DynamoDbRetryPolicy, para medir por separado el tiempo
+// dentro de DynamoDB, los reintentos y las esperas (backoff y limitador de tasa)
+public interface DynamoDbAttemptListener {
+
+    DynamoDbAttemptListener NONE = new DynamoDbAttemptListener() {
+        @Override
+        public void onAttempt(int attempt, long nanos) {
+        }
+
+        @Override
+        public void onWait(long millis) {
+        }
+    };
+
+    // attempt empieza en 1; nanos es la duración del intento, haya terminado bien o con error
+    void onAttempt(int attempt, long nanos);
+
+    void onWait(long millis);
+}
@@ -0,0 +1,33 @@
+package cl.rosta;
+
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
+
+import java.net.URI;
+
+public final class DynamoDbClients {
+
+    // Endpoint alternativo (por ejemplo DynamoDB Local para las pruebas de carga)
+    private static final String ENDPOINT_ENV = "DYNAMODB_ENDPOINT";
+
+    private DynamoDbClients() {
+    }
+
+    public static DynamoDbClient create() {
+        // Los reintentos del SDK se desactivan: DynamoDbRetryPolicy se encarga de ellos
+        DynamoDbClientBuilder builder = DynamoDbClient.builder()
+                .region(Region.US_EAST_1)
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .retryPolicy(RetryPolicy.none())
+                        .build());
+
+        String endpoint = System.getenv(ENDPOINT_ENV);
+        if (endpoint != null && !endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,301 @@
+package cl.rosta;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.RequestLimitExceededException;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+// Política de reintentos para las llamadas a DynamoDB:
+// - backoff exponencial con full jitter
+// - cuota de reintentos (token bucket): los reintentos consumen tokens y los éxitos los devuelven,
+//   así una tormenta de throttles deja de reintentar en vez de amplificarse
+// - limitador de tasa adaptativo del lado del cliente
+// - circuit breaker que falla rápido tras varios agotamientos seguidos y, al vencer la espera,
+//   deja pasar una sola llamada de prueba (half-open) antes de cerrarse
+// Los throttles que no se pueden resolver terminan en ThrottledException (429 con Retry-After)
+public class DynamoDbRetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxRateLimitWaitMillis;
+    private final int retryQuotaCapacity;
+    private final int throttleRetryCost;
+    private final int retryCost;
+    private final int circuitFailureThreshold;
+    private final long circuitOpenMillis;
+    private final AdaptiveRateLimiter rateLimiter;
+
+    private final Object lock = new Object();
+    private int retryQuota;
+    private int consecutiveExhaustions;
+    private long circuitOpenUntilMillis;
+    // Solo una llamada de prueba a la vez mientras el circuito está half-open
+    private final AtomicBoolean probeInFlight = new AtomicBoolean();
+
+    private DynamoDbRetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.maxRateLimitWaitMillis = builder.maxRateLimitWaitMillis;
+        this.retryQuotaCapacity = builder.retryQuotaCapacity;
+        this.throttleRetryCost = builder.throttleRetryCost;
+        this.retryCost = builder.retryCost;
+        this.circuitFailureThreshold = builder.circuitFailureThreshold;
+        this.circuitOpenMillis = builder.circuitOpenMillis;
+        this.rateLimiter = new AdaptiveRateLimiter(builder.minRate, builder.maxRate, builder.rateIncreasePerSuccess);
+        this.retryQuota = builder.retryQuotaCapacity;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public <T> T execute(Supplier<T> call) {
+        return execute(call, DynamoDbAttemptListener.NONE);
+    }
+
+    public <T> T execute(Supplier<T> call, DynamoDbAttemptListener listener) {
+        boolean probe = checkCircuit();
+        try {
+            return executeAttempts(call, listener);
+        } finally {
+            // La prueba terminó (bien o mal): onSuccess ya cerró el circuito u onExhausted lo reabrió
+            if (probe) {
+                probeInFlight.set(false);
+            }
+        }
+    }
+
+    private <T> T executeAttempts(Supplier<T> call, DynamoDbAttemptListener listener) {
+        for (int attempt = 1; ; attempt++) {
+            acquireRateLimit(listener);
+
+            long attemptStart = System.nanoTime();
+            try {
+                T response = call.get();
+                listener.onAttempt(attempt, System.nanoTime() - attemptStart);
+                onSuccess(attempt);
+                return response;
+
+            } catch (SdkException e) {
+                listener.onAttempt(attempt, System.nanoTime() - attemptStart);
+
+                boolean throttled = isThrottle(e);
+                if (!throttled && !e.retryable()) {
+                    throw e;
+                }
+
+                if (throttled) {
+                    rateLimiter.onThrottle();
+                }
+
+                // Sin intentos o sin cuota: dejar de reintentar
+                if (attempt >= maxAttempts || !tryAcquireRetryQuota(throttled ? throttleRetryCost : retryCost)) {
+                    if (!throttled) {
+                        throw e;
+                    }
+                    onExhausted();
+                    throw new ThrottledException("DynamoDB is throttling requests", retryAfterSeconds(backoffCeiling(attempt)), e);
+                }
+
+                long backoffMillis = ThreadLocalRandom.current().nextLong(backoffCeiling(attempt) + 1);
+                listener.onWait(backoffMillis);
+                sleep(backoffMillis);
+            }
+        }
+    }
+
+    public boolean isCircuitOpen() {
+        synchronized (lock) {
+            return System.currentTimeMillis() < circuitOpenUntilMillis;
+        }
+    }
+
+    public AdaptiveRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    static boolean isThrottle(SdkException e) {
+        if (e instanceof ProvisionedThroughputExceededException || e instanceof RequestLimitExceededException) {
+            return true;
+        }
+        // Una transacción cancelada por throttling en alguno de sus items
+        if (e instanceof TransactionCanceledException && ((TransactionCanceledException) e).hasCancellationReasons()) {
+            for (CancellationReason reason : ((TransactionCanceledException) e).cancellationReasons()) {
+                if ("ThrottlingError".equals(reason.code())) {
+                    return true;
+                }
+            }
+        }
+        return e instanceof AwsServiceException && ((AwsServiceException) e).isThrottlingException();
+    }
+
+    // Devuelve true si esta llamada es la prueba del estado half-open
+    private boolean checkCircuit() {
+        synchronized (lock) {
+            if (circuitOpenUntilMillis == 0) {
+                return false;
+            }
+            long remaining = circuitOpenUntilMillis - System.currentTimeMillis();
+            if (remaining > 0) {
+                throw new ThrottledException("DynamoDB circuit breaker is open", retryAfterSeconds(remaining));
+            }
+        }
+        // Half-open: la primera llamada que gana el CAS prueba DynamoDB, las demás siguen fallando rápido
+        if (!probeInFlight.compareAndSet(false, true)) {
+            throw new ThrottledException("DynamoDB circuit breaker is half-open", retryAfterSeconds(baseDelayMillis));
+        }
+        return true;
+    }
+
+    private void acquireRateLimit(DynamoDbAttemptListener listener) {
+        long waitMillis = rateLimiter.reserve(maxRateLimitWaitMillis);
+        if (waitMillis < 0) {
+            throw new ThrottledException("Client-side rate limit exceeded", retryAfterSeconds(maxRateLimitWaitMillis));
+        }
+        if (waitMillis > 0) {
+            listener.onWait(waitMillis);
+            sleep(waitMillis);
+        }
+    }
+
+    private boolean tryAcquireRetryQuota(int cost) {
+        synchronized (lock) {
+            if (retryQuota < cost) {
+                return false;
+            }
+            retryQuota -= cost;
+            return true;
+        }
+    }
+
+    private void onSuccess(int attempt) {
+        rateLimiter.onSuccess();
+        synchronized (lock) {
+            // Un éxito al primer intento devuelve un token; uno tras reintentos devuelve lo gastado
+            int refund = attempt == 1 ? 1 : retryCost;
+            retryQuota = Math.min(retryQuotaCapacity, retryQuota + refund);
+            consecutiveExhaustions = 0;
+            circuitOpenUntilMillis = 0;
+        }
+    }
+
+    private void onExhausted() {
+        synchronized (lock) {
+            consecutiveExhaustions++;
+            // Al pasar el umbral el circuito se abre; tras el tiempo de espera deja pasar una llamada
+            // de prueba y si esa prueba también se agota lo vuelve a abrir
+            if (consecutiveExhaustions >= circuitFailureThreshold) {
+                circuitOpenUntilMillis = System.currentTimeMillis() + circuitOpenMillis;
+            }
+        }
+    }
+
+    private long backoffCeiling(int attempt) {
+        long ceiling = baseDelayMillis << Math.min(attempt - 1, 20);
+        return Math.min(maxDelayMillis, ceiling);
+    }
+
+    private static long retryAfterSeconds(long millis) {
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(millis + 999));
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThrottledException("Interrupted while backing off", 1, e);
+        }
+    }
+
+    public static class Builder {
+        private int maxAttempts = 4;
+        private long baseDelayMillis = 25;
+        private long maxDelayMillis = 1000;
+        private long maxRateLimitWaitMillis = 2000;
+        private int retryQuotaCapacity = 500;
+        private int throttleRetryCost = 5;
+        private int retryCost = 5;
+        private int circuitFailureThreshold = 5;
+        private long circuitOpenMillis = 5000;
+        private double minRate = 1;
+        private double maxRate = 1000;
+        private double rateIncreasePerSuccess = 0.5;
+
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder baseDelayMillis(long baseDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+            return this;
+        }
+
+        public Builder maxDelayMillis(long maxDelayMillis) {
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        public Builder maxRateLimitWaitMillis(long maxRateLimitWaitMillis) {
+            this.maxRateLimitWaitMillis = maxRateLimitWaitMillis;
+            return this;
+        }
+
+        public Builder retryQuotaCapacity(int retryQuotaCapacity) {
+            this.retryQuotaCapacity = retryQuotaCapacity;
+            return this;
+        }
+
+        public Builder throttleRetryCost(int throttleRetryCost) {
+            this.throttleRetryCost = throttleRetryCost;
+            return this;
+        }
+
+        public Builder retryCost(int retryCost) {
+            this.retryCost = retryCost;
+            return this;
+        }
+
+        public Builder circuitFailureThreshold(int circuitFailureThreshold) {
+            this.circuitFailureThreshold = circuitFailureThreshold;
+            return this;
+        }
+
+        public Builder circuitOpenMillis(long circuitOpenMillis) {
+            this.circuitOpenMillis = circuitOpenMillis;
+            return this;
+        }
+
+        public Builder minRate(double minRate) {
+            this.minRate = minRate;
+            return this;
+        }
+
+        public Builder maxRate(double maxRate) {
+            this.maxRate = maxRate;
+            return this;
+        }
+
+        public Builder rateIncreasePerSuccess(double rateIncreasePerSuccess) {
+            this.rateIncreasePerSuccess = rateIncreasePerSuccess;
+            return this;
+        }
+
+        public DynamoDbRetryPolicy build() {
+            return new DynamoDbRetryPolicy(this);
+        }
+    }
+}
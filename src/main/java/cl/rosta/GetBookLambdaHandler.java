@@ -5,7 +5,6 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 
@@ -14,20 +13,34 @@ import java.util.*;
 public class GetBookLambdaHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     
     private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
     private final ObjectMapper objectMapper;
+    private final MetricsSink metricsSink;
     
     public GetBookLambdaHandler() {
-        this.dynamoDbClient = DynamoDbClient.builder()
-                .region(Region.US_EAST_1)
-                .build();
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build(), new StdoutMetricsSink());
+    }
+    
+    GetBookLambdaHandler(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, MetricsSink metricsSink) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
         this.objectMapper = new ObjectMapper();
+        this.metricsSink = metricsSink;
     }
     
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
+        RequestMetrics metrics = RequestMetrics.start("GET /book", event.getBody());
+        APIGatewayProxyResponseEvent response = processRequest(event, context, metrics);
+        metrics.finish(response);
+        metricsSink.emit(metrics);
+        return response;
+    }
+    
+    private APIGatewayProxyResponseEvent processRequest(APIGatewayProxyRequestEvent event, Context context, RequestMetrics metrics) {
         try {
         	// Obtener todos los libros
-            List<Map<String, Object>> books = getAllBooks();
+            List<Map<String, Object>> books = getAllBooks(metrics);
             
             // Devolver respuesta de éxito
             APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
@@ -37,6 +50,13 @@ public class GetBookLambdaHandler implements RequestHandler<APIGatewayProxyReque
                     
         } catch (Exception error) {
             context.getLogger().log("Error: " + error.getMessage());
+            metrics.recordError(error);
+            
+            // DynamoDB sigue limitando las llamadas: pedir al cliente que reintente más tarde
+            ThrottledException throttled = ThrottledException.find(error);
+            if (throttled != null) {
+                return createTooManyRequestsResponse(throttled.getRetryAfterSeconds());
+            }
             
             // Crear mapa de respuestas de error
             Map<String, String> errorMap = new HashMap<>();
@@ -57,13 +77,15 @@ public class GetBookLambdaHandler implements RequestHandler<APIGatewayProxyReque
         }
     }
     
-    private List<Map<String, Object>> getAllBooks() {
+    private List<Map<String, Object>> getAllBooks(RequestMetrics metrics) {
         try {
             ScanRequest scanRequest = ScanRequest.builder()
                     .tableName("books")
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
                     .build();
             
-            ScanResponse response = dynamoDbClient.scan(scanRequest);
+            ScanResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.scan(scanRequest), ScanResponse::consumedCapacity);
+            metrics.addItems(response.count());
             
             List<Map<String, Object>> books = new ArrayList<>();
             for (Map<String, AttributeValue> item : response.items()) {
@@ -118,4 +140,18 @@ public class GetBookLambdaHandler implements RequestHandler<APIGatewayProxyReque
         
         return result;
     }
+    
+    private APIGatewayProxyResponseEvent createTooManyRequestsResponse(long retryAfterSeconds) {
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+        response.setStatusCode(429);
+        response.setHeaders(Map.of("Retry-After", String.valueOf(retryAfterSeconds)));
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Too many requests, please retry later");
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+        } catch (Exception e) {
+            response.setBody("{\"message\": \"Too many requests\"}");
+        }
+        return response;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,292 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+// GET /borrower/{key}/books: libros prestados a un prestatario, con una Query sobre
+// borrower_key-index si la clave es un email o sobre borrower_name-index si es un nombre (así un
+// prestatario con email también se encuentra por su nombre). La clave de orden de ambos índices es id,
+// que todos los libros tienen, así aparecen también los préstamos sin retorno_fecha. El parámetro opcional due_before (YYYY-MM-DD)
+// se aplica como filtro: deja los libros que vencen hasta esa fecha y descarta los que no tienen fecha
+public class GetBorrowerBooksLambdaHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 100;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
+    private final ObjectMapper objectMapper;
+    private final MetricsSink metricsSink;
+
+    public GetBorrowerBooksLambdaHandler() {
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build(), new StdoutMetricsSink());
+    }
+
+    GetBorrowerBooksLambdaHandler(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, MetricsSink metricsSink) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
+        this.objectMapper = new ObjectMapper();
+        this.metricsSink = metricsSink;
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
+        RequestMetrics metrics = RequestMetrics.start("GET /borrower/{key}/books", event.getBody());
+        APIGatewayProxyResponseEvent response = processRequest(event, context, metrics);
+        metrics.finish(response);
+        metricsSink.emit(metrics);
+        return response;
+    }
+
+    private APIGatewayProxyResponseEvent processRequest(APIGatewayProxyRequestEvent event, Context context, RequestMetrics metrics) {
+        try {
+            Map<String, String> pathParameters = event.getPathParameters();
+            Map<String, String> queryParameters = event.getQueryStringParameters() != null ? event.getQueryStringParameters() : Map.of();
+
+            String key = pathParameters != null ? pathParameters.get("key") : null;
+            String borrower = TextNormalizer.normalize(key);
+
+            if (borrower == null || borrower.isEmpty()) {
+                return createBadRequestResponse("Borrower key is required");
+            }
+            String attribute = BorrowerKeys.isEmail(borrower) ? BorrowerKeys.ATTRIBUTE : BorrowerKeys.NAME_ATTRIBUTE;
+
+            String dueBefore = parseDueBefore(queryParameters.get("due_before"));
+            Map<String, AttributeValue> exclusiveStartKey = decodeNextToken(queryParameters.get("next"), attribute, borrower);
+
+            Map<String, Object> result = getBorrowerBooks(attribute, borrower, dueBefore, exclusiveStartKey,
+                    parseLimit(queryParameters.get("limit")), metrics);
+
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(200);
+            response.setBody(objectMapper.writeValueAsString(result));
+            return response;
+
+        } catch (IllegalArgumentException error) {
+            return createBadRequestResponse(error.getMessage());
+
+        } catch (Exception error) {
+            context.getLogger().log("Error: " + error.getMessage());
+            metrics.recordError(error);
+
+            ThrottledException throttled = ThrottledException.find(error);
+            if (throttled != null) {
+                return createTooManyRequestsResponse(throttled.getRetryAfterSeconds());
+            }
+
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", error.getMessage());
+
+            try {
+                APIGatewayProxyResponseEvent errorResponse = new APIGatewayProxyResponseEvent();
+                errorResponse.setStatusCode(500);
+                errorResponse.setBody(objectMapper.writeValueAsString(errorMap));
+                return errorResponse;
+            } catch (Exception e) {
+                APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+                fallbackResponse.setStatusCode(500);
+                fallbackResponse.setBody("{\"message\": \"Internal server error\"}");
+                return fallbackResponse;
+            }
+        }
+    }
+
+    private Map<String, Object> getBorrowerBooks(String attribute, String borrower, String dueBefore,
+                                                 Map<String, AttributeValue> exclusiveStartKey, int limit, RequestMetrics metrics) {
+        Map<String, String> names = new HashMap<>();
+        names.put("#borrower", attribute);
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":borrower", AttributeValue.builder().s(borrower).build());
+
+        String filter = null;
+        if (dueBefore != null) {
+            filter = "#dueDate <= :dueBefore";
+            names.put("#dueDate", "retorno_fecha");
+            values.put(":dueBefore", AttributeValue.builder().s(dueBefore).build());
+        }
+
+        try {
+            List<Map<String, Object>> books = new ArrayList<>();
+
+            // Limit cuenta los libros leídos antes del filtro: se pide solo lo que falta para la página
+            // y se sigue leyendo mientras el filtro deje la página incompleta
+            do {
+                QueryRequest.Builder queryRequestBuilder = QueryRequest.builder()
+                        .tableName("books")
+                        .indexName(indexName(attribute))
+                        .keyConditionExpression("#borrower = :borrower")
+                        .expressionAttributeNames(names)
+                        .expressionAttributeValues(values)
+                        .limit(limit - books.size())
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+                if (filter != null) {
+                    queryRequestBuilder.filterExpression(filter);
+                }
+                if (exclusiveStartKey != null) {
+                    queryRequestBuilder.exclusiveStartKey(exclusiveStartKey);
+                }
+                QueryRequest queryRequest = queryRequestBuilder.build();
+
+                QueryResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.query(queryRequest), QueryResponse::consumedCapacity);
+                metrics.addItems(response.count());
+
+                for (Map<String, AttributeValue> item : response.items()) {
+                    books.add(convertFromAttributeValueMap(item));
+                }
+
+                exclusiveStartKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty() ? response.lastEvaluatedKey() : null;
+            } while (exclusiveStartKey != null && books.size() < limit);
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put(attribute, borrower);
+            result.put("items", books);
+            if (exclusiveStartKey != null) {
+                result.put("next", encodeNextToken(exclusiveStartKey));
+            }
+            return result;
+
+        } catch (Exception e) {
+            throw new RuntimeException("Error getting borrower books: " + e.getMessage(), e);
+        }
+    }
+
+    private static String indexName(String attribute) {
+        return BorrowerKeys.ATTRIBUTE.equals(attribute) ? BorrowerKeys.INDEX_NAME : BorrowerKeys.NAME_INDEX_NAME;
+    }
+
+    // La clave de continuación del índice (id y borrower_key o borrower_name) viaja como JSON en base64 URL-safe
+    private String encodeNextToken(Map<String, AttributeValue> lastEvaluatedKey) throws Exception {
+        Map<String, String> token = new HashMap<>();
+        for (Map.Entry<String, AttributeValue> entry : lastEvaluatedKey.entrySet()) {
+            token.put(entry.getKey(), entry.getValue().s());
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(token));
+    }
+
+    // El token solo vale para el prestatario consultado: uno de otro prestatario se rechaza en vez de
+    // mandarle a DynamoDB una clave de otra partición
+    private Map<String, AttributeValue> decodeNextToken(String next, String attribute, String borrower) {
+        if (next == null || next.isEmpty()) {
+            return null;
+        }
+        Map<String, String> token;
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(next), StandardCharsets.UTF_8);
+            token = objectMapper.readValue(json, new TypeReference<Map<String, String>>() {});
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid next token");
+        }
+        if (token.size() != 2 || !borrower.equals(token.get(attribute)) || token.get("id") == null) {
+            throw new IllegalArgumentException("Invalid next token");
+        }
+        return Map.of(
+                attribute, AttributeValue.builder().s(borrower).build(),
+                "id", AttributeValue.builder().s(token.get("id")).build());
+    }
+
+    private String parseDueBefore(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(value).toString();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("due_before must be a date (YYYY-MM-DD)");
+        }
+    }
+
+    private int parseLimit(String value) {
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            return Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    private Map<String, Object> convertFromAttributeValueMap(Map<String, AttributeValue> attributeMap) {
+        Map<String, Object> result = new HashMap<>();
+
+        for (Map.Entry<String, AttributeValue> entry : attributeMap.entrySet()) {
+            String key = entry.getKey();
+            AttributeValue value = entry.getValue();
+
+            if (value.s() != null) {
+                // Intentar analizar como JSON primero; si falla, tratar como string
+                String stringValue = value.s();
+                try {
+                    if ((stringValue.startsWith("{") && stringValue.endsWith("}")) ||
+                        (stringValue.startsWith("[") && stringValue.endsWith("]"))) {
+                        result.put(key, objectMapper.readValue(stringValue, Object.class));
+                    } else {
+                        result.put(key, stringValue);
+                    }
+                } catch (Exception e) {
+                    result.put(key, stringValue);
+                }
+            } else if (value.n() != null) {
+                // Intentar analizar como entero primero y, si no, como numero double
+                try {
+                    result.put(key, Integer.parseInt(value.n()));
+                } catch (NumberFormatException e) {
+                    try {
+                        result.put(key, Double.parseDouble(value.n()));
+                    } catch (NumberFormatException ex) {
+                        result.put(key, value.n());
+                    }
+                }
+            } else if (value.bool() != null) {
+                result.put(key, value.bool());
+            } else {
+                result.put(key, value.toString());
+            }
+        }
+
+        return result;
+    }
+
+    private APIGatewayProxyResponseEvent createBadRequestResponse(String message) {
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", message);
+
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(400);
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+            return response;
+        } catch (Exception e) {
+            APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+            fallbackResponse.setStatusCode(400);
+            fallbackResponse.setBody("{\"message\": \"Bad request\"}");
+            return fallbackResponse;
+        }
+    }
+
+    private APIGatewayProxyResponseEvent createTooManyRequestsResponse(long retryAfterSeconds) {
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+        response.setStatusCode(429);
+        response.setHeaders(Map.of("Retry-After", String.valueOf(retryAfterSeconds)));
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Too many requests, please retry later");
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+        } catch (Exception e) {
+            response.setBody("{\"message\": \"Too many requests\"}");
+        }
+        return response;
+    }
+}
@@ -5,7 +5,6 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 
@@ -14,17 +13,31 @@ import java.util.*;
 public class GetIdBookLambdaHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     
     private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
     private final ObjectMapper objectMapper;
+    private final MetricsSink metricsSink;
     
     public GetIdBookLambdaHandler() {
-        this.dynamoDbClient = DynamoDbClient.builder()
-                .region(Region.US_EAST_1)
-                .build();
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build(), new StdoutMetricsSink());
+    }
+    
+    GetIdBookLambdaHandler(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, MetricsSink metricsSink) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
         this.objectMapper = new ObjectMapper();
+        this.metricsSink = metricsSink;
     }
     
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
+        RequestMetrics metrics = RequestMetrics.start("GET /book/{id}", event.getBody());
+        APIGatewayProxyResponseEvent response = processRequest(event, context, metrics);
+        metrics.finish(response);
+        metricsSink.emit(metrics);
+        return response;
+    }
+    
+    private APIGatewayProxyResponseEvent processRequest(APIGatewayProxyRequestEvent event, Context context, RequestMetrics metrics) {
         try {
         	// Obtener el ID del libro a partir de los parámetros de la ruta
             Map<String, String> pathParameters = event.getPathParameters();
@@ -39,7 +52,7 @@ public class GetIdBookLambdaHandler implements RequestHandler<APIGatewayProxyReq
             }
             
             // Obtener un libro específico por su ID
-            Map<String, Object> book = getBookById(bookId);
+            Map<String, Object> book = getBookById(bookId, metrics);
             
             if (book == null) {
                 return createNotFoundResponse();
@@ -53,6 +66,13 @@ public class GetIdBookLambdaHandler implements RequestHandler<APIGatewayProxyReq
                     
         } catch (Exception error) {
             context.getLogger().log("Error: " + error.getMessage());
+            metrics.recordError(error);
+            
+            // DynamoDB sigue limitando las llamadas: pedir al cliente que reintente más tarde
+            ThrottledException throttled = ThrottledException.find(error);
+            if (throttled != null) {
+                return createTooManyRequestsResponse(throttled.getRetryAfterSeconds());
+            }
             
             // Crear un mapa de respuestas de error
             Map<String, String> errorMap = new HashMap<>();
@@ -73,19 +93,22 @@ public class GetIdBookLambdaHandler implements RequestHandler<APIGatewayProxyReq
         }
     }
     
-    private Map<String, Object> getBookById(String bookId) {
+    private Map<String, Object> getBookById(String bookId, RequestMetrics metrics) {
         try {
             GetItemRequest getItemRequest = GetItemRequest.builder()
                     .tableName("books")
                     .key(Map.of("id", AttributeValue.builder().s(bookId).build()))
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
                     .build();
             
-            GetItemResponse response = dynamoDbClient.getItem(getItemRequest);
+            GetItemResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.getItem(getItemRequest), GetItemResponse::consumedCapacity);
             
             if (response.item().isEmpty()) {
                 return null; // Libro no encontrado
             }
             
+            metrics.addItems(1);
+            
             return convertFromAttributeValueMap(response.item());
             
         } catch (Exception e) {
@@ -168,4 +191,18 @@ public class GetIdBookLambdaHandler implements RequestHandler<APIGatewayProxyReq
             return fallbackResponse;
         }
     }
-}
+    
+    private APIGatewayProxyResponseEvent createTooManyRequestsResponse(long retryAfterSeconds) {
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+        response.setStatusCode(429);
+        response.setHeaders(Map.of("Retry-After", String.valueOf(retryAfterSeconds)));
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Too many requests, please retry later");
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+        } catch (Exception e) {
+            response.setBody("{\"message\": \"Too many requests\"}");
+        }
+        return response;
+    }
+}
\ No newline at end of file
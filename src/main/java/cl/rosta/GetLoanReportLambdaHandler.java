@@ -0,0 +1,306 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.*;
+
+// Reportes de préstamos a partir de los agregados de books_rollups:
+// GET /report/{dimension}/{key} devuelve un agregado (una lectura). Los agregados de prestatario se
+// guardan por borrower_key (el email si lo tiene): un nombre se resuelve con borrower_name-index a la
+// clave de sus préstamos activos; sin préstamos activos se usa el nombre como clave, y si lo comparten
+// prestatarios con distinto email responde 409
+// GET /report/{dimension} lista los agregados de la dimensión en orden de clave, paginados
+public class GetLoanReportLambdaHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 100;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
+    private final ObjectMapper objectMapper;
+    private final MetricsSink metricsSink;
+
+    public GetLoanReportLambdaHandler() {
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build(), new StdoutMetricsSink());
+    }
+
+    GetLoanReportLambdaHandler(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, MetricsSink metricsSink) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
+        this.objectMapper = new ObjectMapper();
+        this.metricsSink = metricsSink;
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
+        RequestMetrics metrics = RequestMetrics.start("GET /report", event.getBody());
+        APIGatewayProxyResponseEvent response = processRequest(event, context, metrics);
+        metrics.finish(response);
+        metricsSink.emit(metrics);
+        return response;
+    }
+
+    private APIGatewayProxyResponseEvent processRequest(APIGatewayProxyRequestEvent event, Context context, RequestMetrics metrics) {
+        try {
+            Map<String, String> pathParameters = event.getPathParameters() != null ? event.getPathParameters() : Map.of();
+            Map<String, String> queryParameters = event.getQueryStringParameters() != null ? event.getQueryStringParameters() : Map.of();
+
+            String dimension = pathParameters.get("dimension");
+            if (!LoanHistory.isDimension(dimension)) {
+                return createBadRequestResponse("dimension must be borrower, author or month");
+            }
+
+            String key = pathParameters.get("key");
+            Object body;
+
+            if (key != null && !key.isEmpty()) {
+                // Las claves de prestatario y autor se guardan normalizadas
+                String rollupKey = LoanHistory.DIMENSION_MONTH.equals(dimension) ? key : TextNormalizer.normalize(key);
+                if (LoanHistory.DIMENSION_BORROWER.equals(dimension) && !rollupKey.isEmpty() && !BorrowerKeys.isEmail(rollupKey)) {
+                    Set<String> borrowerKeys = findBorrowerKeys(rollupKey, metrics);
+                    if (borrowerKeys.size() > 1) {
+                        return createConflictResponse("Several borrowers share this name, use the email");
+                    }
+                    if (borrowerKeys.size() == 1) {
+                        rollupKey = borrowerKeys.iterator().next();
+                    }
+                }
+                Map<String, Object> report = getReport(dimension, rollupKey, metrics);
+
+                if (report == null) {
+                    return createNotFoundResponse();
+                }
+                body = report;
+            } else {
+                int limit = parseLimit(queryParameters.get("limit"));
+                body = listReports(dimension, queryParameters.get("next"), limit, metrics);
+            }
+
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(200);
+            response.setBody(objectMapper.writeValueAsString(body));
+            return response;
+
+        } catch (Exception error) {
+            context.getLogger().log("Error: " + error.getMessage());
+            metrics.recordError(error);
+
+            ThrottledException throttled = ThrottledException.find(error);
+            if (throttled != null) {
+                return createTooManyRequestsResponse(throttled.getRetryAfterSeconds());
+            }
+
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", error.getMessage());
+
+            try {
+                APIGatewayProxyResponseEvent errorResponse = new APIGatewayProxyResponseEvent();
+                errorResponse.setStatusCode(500);
+                errorResponse.setBody(objectMapper.writeValueAsString(errorMap));
+                return errorResponse;
+            } catch (Exception e) {
+                APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+                fallbackResponse.setStatusCode(500);
+                fallbackResponse.setBody("{\"message\": \"Internal server error\"}");
+                return fallbackResponse;
+            }
+        }
+    }
+
+    private Map<String, Object> getReport(String dimension, String key, RequestMetrics metrics) {
+        try {
+            GetItemRequest getItemRequest = GetItemRequest.builder()
+                    .tableName(LoanHistory.ROLLUPS_TABLE)
+                    .key(LoanHistory.rollupKey(dimension, key))
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                    .build();
+
+            GetItemResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.getItem(getItemRequest), GetItemResponse::consumedCapacity);
+
+            if (response.item().isEmpty()) {
+                return null;
+            }
+
+            metrics.addItems(1);
+            return LoanHistory.toReport(response.item());
+
+        } catch (Exception e) {
+            throw new RuntimeException("Error getting report: " + e.getMessage(), e);
+        }
+    }
+
+    // Claves de los prestatarios con préstamos activos a este nombre (un prestatario tiene pocos libros)
+    private Set<String> findBorrowerKeys(String borrowerName, RequestMetrics metrics) {
+        try {
+            Set<String> borrowerKeys = new TreeSet<>();
+            Map<String, AttributeValue> lastEvaluatedKey = null;
+            do {
+                QueryRequest.Builder queryRequestBuilder = QueryRequest.builder()
+                        .tableName("books")
+                        .indexName(BorrowerKeys.NAME_INDEX_NAME)
+                        .keyConditionExpression("#borrowerName = :borrowerName")
+                        .projectionExpression("#borrowerKey")
+                        .expressionAttributeNames(Map.of(
+                                "#borrowerName", BorrowerKeys.NAME_ATTRIBUTE, "#borrowerKey", BorrowerKeys.ATTRIBUTE))
+                        .expressionAttributeValues(Map.of(":borrowerName", AttributeValue.builder().s(borrowerName).build()))
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+                if (lastEvaluatedKey != null) {
+                    queryRequestBuilder.exclusiveStartKey(lastEvaluatedKey);
+                }
+                QueryRequest queryRequest = queryRequestBuilder.build();
+
+                QueryResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.query(queryRequest), QueryResponse::consumedCapacity);
+                for (Map<String, AttributeValue> item : response.items()) {
+                    AttributeValue borrowerKey = item.get(BorrowerKeys.ATTRIBUTE);
+                    if (borrowerKey != null && borrowerKey.s() != null) {
+                        borrowerKeys.add(borrowerKey.s());
+                    }
+                }
+
+                lastEvaluatedKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty() ? response.lastEvaluatedKey() : null;
+            } while (lastEvaluatedKey != null);
+            return borrowerKeys;
+
+        } catch (Exception e) {
+            throw new RuntimeException("Error resolving borrower name: " + e.getMessage(), e);
+        }
+    }
+
+    // Cada fragmento de la dimensión devuelve sus primeras claves después de next; la página son las
+    // primeras limit de todas, en orden de clave. Lee hasta ROLLUP_SHARDS * limit agregados por página
+    private Map<String, Object> listReports(String dimension, String next, int limit, RequestMetrics metrics) {
+        try {
+            Map<String, String> names = new HashMap<>();
+            names.put("#partition", LoanHistory.PARTITION_ATTRIBUTE);
+            String keyCondition = "#partition = :partition";
+            Map<String, AttributeValue> values = new HashMap<>();
+            if (next != null && !next.isEmpty()) {
+                keyCondition += " AND #key > :next";
+                names.put("#key", "key");
+                values.put(":next", AttributeValue.builder().s(next).build());
+            }
+
+            List<Map<String, AttributeValue>> rollups = new ArrayList<>();
+            boolean more = false;
+            for (int shard = 0; shard < LoanHistory.ROLLUP_SHARDS; shard++) {
+                values.put(":partition", AttributeValue.builder().s(LoanHistory.partition(dimension, shard)).build());
+                QueryRequest queryRequest = QueryRequest.builder()
+                        .tableName(LoanHistory.ROLLUPS_TABLE)
+                        .keyConditionExpression(keyCondition)
+                        .expressionAttributeNames(names)
+                        .expressionAttributeValues(new HashMap<>(values))
+                        .limit(limit)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                        .build();
+
+                QueryResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.query(queryRequest), QueryResponse::consumedCapacity);
+                metrics.addItems(response.count());
+                rollups.addAll(response.items());
+                more |= response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty();
+            }
+
+            rollups.sort(Comparator.comparing((Map<String, AttributeValue> rollup) -> rollup.get("key").s()));
+            if (rollups.size() > limit) {
+                rollups = rollups.subList(0, limit);
+                more = true;
+            }
+
+            List<Map<String, Object>> reports = new ArrayList<>();
+            for (Map<String, AttributeValue> item : rollups) {
+                reports.add(LoanHistory.toReport(item));
+            }
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("items", reports);
+            if (more && !rollups.isEmpty()) {
+                result.put("next", rollups.get(rollups.size() - 1).get("key").s());
+            }
+            return result;
+
+        } catch (Exception e) {
+            throw new RuntimeException("Error listing reports: " + e.getMessage(), e);
+        }
+    }
+
+    private int parseLimit(String value) {
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            return Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    private APIGatewayProxyResponseEvent createNotFoundResponse() {
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Report not found");
+
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(404);
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+            return response;
+        } catch (Exception e) {
+            APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+            fallbackResponse.setStatusCode(404);
+            fallbackResponse.setBody("{\"message\": \"Report not found\"}");
+            return fallbackResponse;
+        }
+    }
+
+    private APIGatewayProxyResponseEvent createConflictResponse(String message) {
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", message);
+
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(409);
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+            return response;
+        } catch (Exception e) {
+            APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+            fallbackResponse.setStatusCode(409);
+            fallbackResponse.setBody("{\"message\": \"Conflict\"}");
+            return fallbackResponse;
+        }
+    }
+
+    private APIGatewayProxyResponseEvent createBadRequestResponse(String message) {
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", message);
+
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(400);
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+            return response;
+        } catch (Exception e) {
+            APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+            fallbackResponse.setStatusCode(400);
+            fallbackResponse.setBody("{\"message\": \"Bad request\"}");
+            return fallbackResponse;
+        }
+    }
+
+    private APIGatewayProxyResponseEvent createTooManyRequestsResponse(long retryAfterSeconds) {
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+        response.setStatusCode(429);
+        response.setHeaders(Map.of("Retry-After", String.valueOf(retryAfterSeconds)));
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Too many requests, please retry later");
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+        } catch (Exception e) {
+            response.setBody("{\"message\": \"Too many requests\"}");
+        }
+        return response;
+    }
+}
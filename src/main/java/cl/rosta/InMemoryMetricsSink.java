@@ -0,0 +1,39 @@
+package cl.rosta;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Sink local que guarda las métricas en memoria, para pruebas y ejecuciones locales
+public class InMemoryMetricsSink implements MetricsSink {
+
+    private final List<RequestMetrics> recorded = new CopyOnWriteArrayList<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public void emit(RequestMetrics metrics) {
+        recorded.add(metrics);
+    }
+
+    public List<RequestMetrics> getRecorded() {
+        return new ArrayList<>(recorded);
+    }
+
+    public List<String> toEmfLines() {
+        List<String> lines = new ArrayList<>();
+        for (RequestMetrics metrics : recorded) {
+            try {
+                lines.add(metrics.toEmfJson(objectMapper));
+            } catch (Exception e) {
+                throw new RuntimeException("Error serializing metrics: " + e.getMessage(), e);
+            }
+        }
+        return lines;
+    }
+
+    public void clear() {
+        recorded.clear();
+    }
+}
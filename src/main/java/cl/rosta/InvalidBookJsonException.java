@@ -0,0 +1,16 @@
+package cl.rosta;
+
+// Se lanza cuando el cuerpo de POST /book o PUT /book/{id} no es un libro válido.
+// Los handlers la convierten en un 400; un IllegalArgumentException de otro origen sigue siendo un 500
+public class InvalidBookJsonException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidBookJsonException(String message) {
+        super(message);
+    }
+
+    public InvalidBookJsonException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
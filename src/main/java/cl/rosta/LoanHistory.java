@@ -0,0 +1,311 @@
+package cl.rosta;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+// Historial de préstamos y agregados incrementales.
+// Cuando se devuelve (elimina) un libro, en una sola transacción se:
+// - elimina el préstamo de books
+// - agrega una fila compacta a books_history, particionada por mes de devolución
+// - suman los contadores de books_rollups por prestatario, autor y mes
+// Los reportes leen books_rollups directamente, sin recorrer el historial.
+// books_rollups se particiona por dimensión y fragmento ("borrower#3"): el fragmento sale del hash de la
+// clave, así las escrituras y lecturas de una dimensión se reparten en ROLLUP_SHARDS particiones
+public final class LoanHistory {
+
+    public static final String HISTORY_TABLE = "books_history";
+    public static final String ROLLUPS_TABLE = "books_rollups";
+
+    public static final String DIMENSION_BORROWER = "borrower";
+    public static final String DIMENSION_AUTHOR = "author";
+    public static final String DIMENSION_MONTH = "month";
+
+    // Clave de partición de books_rollups; vencidosBook.js usa el mismo número de fragmentos
+    public static final String PARTITION_ATTRIBUTE = "partition";
+    public static final int ROLLUP_SHARDS = 8;
+
+    // Índice disperso de books_rollups con solo los prestatarios que tienen préstamos activos:
+    // active_dimension existe mientras active_loans > 0 y guarda la partición del prestatario, así
+    // el notificador lee solo esas filas, repartidas en los mismos fragmentos
+    public static final String ACTIVE_BORROWERS_INDEX = "active-borrowers-index";
+    public static final String ACTIVE_ATTRIBUTE = "active_dimension";
+
+    public static final ZoneId ZONE = ZoneId.of("America/Santiago");
+
+    // Atributos del libro que se copian al historial
+    private static final List<String> HISTORY_ATTRIBUTES = List.of(
+            "title", "author", "prestado_a", "email", "prestado_fecha", "retorno_fecha");
+
+    private LoanHistory() {
+    }
+
+    public static List<TransactWriteItem> buildReturnTransaction(String bookId, Map<String, AttributeValue> book, LocalDate returnedDate) {
+        String month = returnedDate.toString().substring(0, 7);
+        Long loanDays = loanDays(book, returnedDate);
+        boolean overdue = isOverdue(book, returnedDate);
+
+        List<TransactWriteItem> items = new ArrayList<>();
+
+        // Eliminar el préstamo solo si todavía existe y sigue con los valores leídos: así no se cuenta
+        // dos veces la devolución ni se registra un historial con datos que otra solicitud ya cambió
+        items.add(TransactWriteItem.builder()
+                .delete(unchangedBookDelete(bookId, book))
+                .build());
+
+        Map<String, AttributeValue> historyItem = new HashMap<>();
+        historyItem.put("month", AttributeValue.builder().s(month).build());
+        historyItem.put("returned_id", AttributeValue.builder().s(returnedDate + "#" + bookId).build());
+        historyItem.put("book_id", AttributeValue.builder().s(bookId).build());
+        historyItem.put("devuelto_fecha", AttributeValue.builder().s(returnedDate.toString()).build());
+        historyItem.put("overdue", AttributeValue.builder().bool(overdue).build());
+        if (loanDays != null) {
+            historyItem.put("loan_days", AttributeValue.builder().n(loanDays.toString()).build());
+        }
+        for (String attribute : HISTORY_ATTRIBUTES) {
+            AttributeValue value = book.get(attribute);
+            if (value != null && value.s() != null) {
+                historyItem.put(attribute, value);
+            }
+        }
+
+        items.add(TransactWriteItem.builder()
+                .put(Put.builder()
+                        .tableName(HISTORY_TABLE)
+                        .item(historyItem)
+                        .build())
+                .build());
+
+        // Solo los libros con borrower_key guardado sumaron un préstamo activo al crearse
+        AttributeValue storedBorrowerKey = book.get(BorrowerKeys.ATTRIBUTE);
+        boolean closesActiveLoan = storedBorrowerKey != null && storedBorrowerKey.s() != null;
+        String borrowerKey = closesActiveLoan ? storedBorrowerKey.s() : BorrowerKeys.of(book);
+        if (borrowerKey != null) {
+            items.add(rollupUpdate(DIMENSION_BORROWER, borrowerKey, label(book, "prestado_a"), loanDays, overdue, closesActiveLoan));
+        }
+
+        String author = label(book, "author");
+        if (author != null) {
+            items.add(rollupUpdate(DIMENSION_AUTHOR, TextNormalizer.normalize(author), author, loanDays, overdue, false));
+        }
+
+        items.add(rollupUpdate(DIMENSION_MONTH, month, month, loanDays, overdue, false));
+
+        return items;
+    }
+
+    // Condiciona la eliminación a que los atributos que alimentan el historial y los agregados
+    // sigan iguales a los leídos (un atributo ausente o no textual debe seguir así)
+    private static Delete unchangedBookDelete(String bookId, Map<String, AttributeValue> book) {
+        List<String> attributes = new ArrayList<>(HISTORY_ATTRIBUTES);
+        attributes.add(BorrowerKeys.ATTRIBUTE);
+
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+        StringBuilder condition = new StringBuilder("attribute_exists(#id)");
+        names.put("#id", "id");
+
+        for (int i = 0; i < attributes.size(); i++) {
+            String name = "#a" + i;
+            String value = ":a" + i;
+            names.put(name, attributes.get(i));
+
+            AttributeValue current = book.get(attributes.get(i));
+            if (current != null && current.s() != null) {
+                condition.append(" AND ").append(name).append(" = ").append(value);
+                values.put(value, current);
+            } else {
+                condition.append(" AND (attribute_not_exists(").append(name).append(") OR NOT attribute_type(")
+                        .append(name).append(", :string))");
+                values.put(":string", AttributeValue.builder().s("S").build());
+            }
+        }
+
+        Delete.Builder delete = Delete.builder()
+                .tableName("books")
+                .key(Map.of("id", AttributeValue.builder().s(bookId).build()))
+                .conditionExpression(condition.toString())
+                .expressionAttributeNames(names);
+        if (!values.isEmpty()) {
+            delete.expressionAttributeValues(values);
+        }
+        return delete.build();
+    }
+
+    private static TransactWriteItem rollupUpdate(String dimension, String key, String label, Long loanDays, boolean overdue,
+                                                  boolean closesActiveLoan) {
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":one", AttributeValue.builder().n("1").build());
+        values.put(":overdue", AttributeValue.builder().n(overdue ? "1" : "0").build());
+        values.put(":timed", AttributeValue.builder().n(loanDays != null ? "1" : "0").build());
+        values.put(":days", AttributeValue.builder().n(loanDays != null ? loanDays.toString() : "0").build());
+
+        // Se usan nombres de expresión para no chocar con palabras reservadas de DynamoDB
+        Map<String, String> names = new HashMap<>();
+        names.put("#loans", "loans");
+        names.put("#overdue", "overdue");
+        names.put("#timed", "timed_loans");
+        names.put("#days", "loan_days");
+
+        StringBuilder updateExpression = new StringBuilder();
+        if (label != null) {
+            updateExpression.append("SET #label = :label ");
+            names.put("#label", "label");
+            values.put(":label", AttributeValue.builder().s(label).build());
+        }
+        updateExpression.append("ADD #loans :one, #overdue :overdue, #timed :timed, #days :days");
+        if (closesActiveLoan) {
+            updateExpression.append(", #active :closed");
+            names.put("#active", "active_loans");
+            values.put(":closed", AttributeValue.builder().n("-1").build());
+        }
+
+        return TransactWriteItem.builder()
+                .update(Update.builder()
+                        .tableName(ROLLUPS_TABLE)
+                        .key(rollupKey(dimension, key))
+                        .updateExpression(updateExpression.toString())
+                        .expressionAttributeNames(names)
+                        .expressionAttributeValues(values)
+                        .build())
+                .build();
+    }
+
+    // Suma (o resta) préstamos activos del prestatario. El notificador recorre los prestatarios
+    // del índice active-borrowers-index y consulta sus libros en el índice borrower_key-index.
+    // Al sumar se marca al prestatario como activo; al restar la marca se quita con clearInactiveBorrower
+    public static Update activeLoansUpdate(String borrowerKey, String label, int delta) {
+        Map<String, String> names = new HashMap<>();
+        names.put("#active", "active_loans");
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":delta", AttributeValue.builder().n(Integer.toString(delta)).build());
+
+        List<String> setClauses = new ArrayList<>();
+        if (label != null) {
+            setClauses.add("#label = :label");
+            names.put("#label", "label");
+            values.put(":label", AttributeValue.builder().s(label).build());
+        }
+        if (delta > 0) {
+            setClauses.add("#activeFlag = :partition");
+            names.put("#activeFlag", ACTIVE_ATTRIBUTE);
+            values.put(":partition", AttributeValue.builder().s(partition(DIMENSION_BORROWER, borrowerKey)).build());
+        }
+
+        String updateExpression = "ADD #active :delta";
+        if (!setClauses.isEmpty()) {
+            updateExpression = "SET " + String.join(", ", setClauses) + " " + updateExpression;
+        }
+
+        return Update.builder()
+                .tableName(ROLLUPS_TABLE)
+                .key(rollupKey(DIMENSION_BORROWER, borrowerKey))
+                .updateExpression(updateExpression)
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(values)
+                .build();
+    }
+
+    // Quita al prestatario del índice de activos si ya no le quedan préstamos. Se ejecuta después de
+    // restar un préstamo activo; si entretanto se sumó otro, la condición falla y la marca se mantiene
+    public static void clearInactiveBorrower(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy,
+                                             String borrowerKey, RequestMetrics metrics) {
+        UpdateItemRequest updateItemRequest = UpdateItemRequest.builder()
+                .tableName(ROLLUPS_TABLE)
+                .key(rollupKey(DIMENSION_BORROWER, borrowerKey))
+                .updateExpression("REMOVE #activeFlag")
+                .conditionExpression("attribute_exists(#activeFlag) AND #active <= :zero")
+                .expressionAttributeNames(Map.of("#activeFlag", ACTIVE_ATTRIBUTE, "#active", "active_loans"))
+                .expressionAttributeValues(Map.of(":zero", AttributeValue.builder().n("0").build()))
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+
+        try {
+            metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.updateItem(updateItemRequest), UpdateItemResponse::consumedCapacity);
+        } catch (ConditionalCheckFailedException e) {
+            // Todavía tiene préstamos activos (o ya no estaba marcado)
+        }
+    }
+
+    public static Map<String, AttributeValue> rollupKey(String dimension, String key) {
+        return Map.of(
+                PARTITION_ATTRIBUTE, AttributeValue.builder().s(partition(dimension, key)).build(),
+                "key", AttributeValue.builder().s(key).build());
+    }
+
+    // String.hashCode está definido por la especificación, así el fragmento de una clave no cambia entre JVMs
+    public static String partition(String dimension, String key) {
+        return partition(dimension, Math.floorMod(key.hashCode(), ROLLUP_SHARDS));
+    }
+
+    public static String partition(String dimension, int shard) {
+        return dimension + "#" + shard;
+    }
+
+    // Convierte un item de books_rollups en el cuerpo del reporte
+    public static Map<String, Object> toReport(Map<String, AttributeValue> rollup) {
+        long loans = longValue(rollup.get("loans"));
+        long timedLoans = longValue(rollup.get("timed_loans"));
+        long loanDays = longValue(rollup.get("loan_days"));
+        long overdue = longValue(rollup.get("overdue"));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        String partition = rollup.get(PARTITION_ATTRIBUTE).s();
+        report.put("dimension", partition.substring(0, partition.indexOf('#')));
+        report.put("key", rollup.get("key").s());
+        if (rollup.containsKey("label")) {
+            report.put("label", rollup.get("label").s());
+        }
+        report.put("loans", loans);
+        if (rollup.containsKey("active_loans")) {
+            report.put("active_loans", longValue(rollup.get("active_loans")));
+        }
+        report.put("overdue", overdue);
+        report.put("overdue_rate", loans > 0 ? (double) overdue / loans : 0.0);
+        report.put("average_loan_days", timedLoans > 0 ? (double) loanDays / timedLoans : null);
+        return report;
+    }
+
+    public static boolean isDimension(String dimension) {
+        return DIMENSION_BORROWER.equals(dimension) || DIMENSION_AUTHOR.equals(dimension) || DIMENSION_MONTH.equals(dimension);
+    }
+
+    private static Long loanDays(Map<String, AttributeValue> book, LocalDate returnedDate) {
+        LocalDate loanedDate = date(book, "prestado_fecha");
+        return loanedDate != null ? ChronoUnit.DAYS.between(loanedDate, returnedDate) : null;
+    }
+
+    private static boolean isOverdue(Map<String, AttributeValue> book, LocalDate returnedDate) {
+        LocalDate dueDate = date(book, "retorno_fecha");
+        return dueDate != null && returnedDate.isAfter(dueDate);
+    }
+
+    private static LocalDate date(Map<String, AttributeValue> book, String attribute) {
+        String value = label(book, attribute);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String label(Map<String, AttributeValue> book, String attribute) {
+        AttributeValue value = book.get(attribute);
+        if (value == null || value.s() == null || value.s().trim().isEmpty()) {
+            return null;
+        }
+        return value.s().trim();
+    }
+
+    private static long longValue(AttributeValue value) {
+        return value != null && value.n() != null ? Long.parseLong(value.n()) : 0;
+    }
+}
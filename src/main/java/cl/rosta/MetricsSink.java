@@ -0,0 +1,6 @@
+package cl.rosta;
+
+public interface MetricsSink {
+
+    void emit(RequestMetrics metrics);
+}
@@ -0,0 +1,246 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Métricas de una invocación, emitidas como una línea JSON en Embedded Metric Format (EMF)
+public class RequestMetrics implements DynamoDbAttemptListener {
+
+    private static final String NAMESPACE = System.getenv().getOrDefault("METRICS_NAMESPACE", "BookTracker");
+
+    // El primer RequestMetrics creado en el contenedor corresponde al cold start
+    private static final AtomicBoolean COLD_START = new AtomicBoolean(true);
+
+    private static final String[][] METRIC_DEFINITIONS = {
+            {"Latency", "Milliseconds"},
+            {"DynamoDbLatency", "Milliseconds"},
+            {"DynamoDbCalls", "Count"},
+            {"DynamoDbAttempts", "Count"},
+            {"DynamoDbRetries", "Count"},
+            {"DynamoDbWaitTime", "Milliseconds"},
+            {"ConsumedCapacity", "None"},
+            {"ItemCount", "Count"},
+            {"RequestBytes", "Bytes"},
+            {"ResponseBytes", "Bytes"},
+            {"ColdStart", "Count"},
+            {"Errors", "Count"},
+            {"ClientErrors", "Count"},
+            {"Throttles", "Count"}
+    };
+
+    private final String route;
+    private final boolean coldStart;
+    private final long timestamp;
+    private final long startNanos;
+    private final long requestBytes;
+
+    private long latencyNanos;
+    private long dynamoDbNanos;
+    private int dynamoDbCalls;
+    private int dynamoDbAttempts;
+    private int dynamoDbRetries;
+    private long dynamoDbWaitMillis;
+    private double consumedCapacity;
+    private int itemCount;
+    private long responseBytes;
+    private int statusCode;
+    private String errorClass;
+
+    private RequestMetrics(String route, String requestBody) {
+        this.route = route;
+        this.coldStart = COLD_START.getAndSet(false);
+        this.timestamp = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.requestBytes = utf8Length(requestBody);
+    }
+
+    public static RequestMetrics start(String route, String requestBody) {
+        return new RequestMetrics(route, requestBody);
+    }
+
+    // Ejecuta una llamada a DynamoDB con la política de reintentos. DynamoDbCalls cuenta operaciones
+    // lógicas; la latencia y los intentos se miden por intento, sin incluir las esperas entre ellos
+    public <T> T recordDynamoDbCall(DynamoDbRetryPolicy retryPolicy, Supplier<T> call, Function<T, ConsumedCapacity> capacity) {
+        dynamoDbCalls++;
+        T response = retryPolicy.execute(call, this);
+        addConsumedCapacity(capacity.apply(response));
+        return response;
+    }
+
+    @Override
+    public void onAttempt(int attempt, long nanos) {
+        dynamoDbNanos += nanos;
+        dynamoDbAttempts++;
+        if (attempt > 1) {
+            dynamoDbRetries++;
+        }
+    }
+
+    @Override
+    public void onWait(long millis) {
+        dynamoDbWaitMillis += millis;
+    }
+
+    public void addConsumedCapacity(ConsumedCapacity capacity) {
+        if (capacity != null && capacity.capacityUnits() != null) {
+            consumedCapacity += capacity.capacityUnits();
+        }
+    }
+
+    public void addItems(int count) {
+        itemCount += count;
+    }
+
+    // Guarda la clase de la excepción como propiedad del log; las métricas de error salen del código de estado
+    public void recordError(Throwable error) {
+        errorClass = error.getClass().getSimpleName();
+    }
+
+    public void finish(APIGatewayProxyResponseEvent response) {
+        latencyNanos = System.nanoTime() - startNanos;
+        if (response != null) {
+            statusCode = response.getStatusCode() != null ? response.getStatusCode() : 0;
+            responseBytes = utf8Length(response.getBody());
+        }
+    }
+
+    public String toEmfJson(ObjectMapper objectMapper) throws JsonProcessingException {
+        ObjectNode root = objectMapper.createObjectNode();
+
+        // Metadatos que CloudWatch usa para extraer las métricas del log
+        ObjectNode aws = root.putObject("_aws");
+        aws.put("Timestamp", timestamp);
+        ObjectNode directive = aws.putArray("CloudWatchMetrics").addObject();
+        directive.put("Namespace", NAMESPACE);
+        directive.putArray("Dimensions").addArray().add("Route");
+        ArrayNode metrics = directive.putArray("Metrics");
+        for (String[] definition : METRIC_DEFINITIONS) {
+            metrics.addObject().put("Name", definition[0]).put("Unit", definition[1]);
+        }
+
+        root.put("Route", route);
+        root.put("Latency", toMillis(latencyNanos));
+        root.put("DynamoDbLatency", toMillis(dynamoDbNanos));
+        root.put("DynamoDbCalls", dynamoDbCalls);
+        root.put("DynamoDbAttempts", dynamoDbAttempts);
+        root.put("DynamoDbRetries", dynamoDbRetries);
+        root.put("DynamoDbWaitTime", dynamoDbWaitMillis);
+        root.put("ConsumedCapacity", consumedCapacity);
+        root.put("ItemCount", itemCount);
+        root.put("RequestBytes", requestBytes);
+        root.put("ResponseBytes", responseBytes);
+        root.put("ColdStart", coldStart ? 1 : 0);
+        // Errors cuenta solo fallas del servidor (5xx); los 4xx del cliente y los 429 van aparte
+        root.put("Errors", isServerError() ? 1 : 0);
+        root.put("ClientErrors", isClientError() ? 1 : 0);
+        root.put("Throttles", statusCode == 429 ? 1 : 0);
+
+        // Propiedades sin métrica asociada, consultables desde Logs Insights
+        root.put("StatusCode", statusCode);
+        if (errorClass != null) {
+            root.put("ErrorClass", errorClass);
+        }
+
+        return objectMapper.writeValueAsString(root);
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public boolean isColdStart() {
+        return coldStart;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public long getDynamoDbNanos() {
+        return dynamoDbNanos;
+    }
+
+    public int getDynamoDbCalls() {
+        return dynamoDbCalls;
+    }
+
+    public int getDynamoDbAttempts() {
+        return dynamoDbAttempts;
+    }
+
+    public int getDynamoDbRetries() {
+        return dynamoDbRetries;
+    }
+
+    public long getDynamoDbWaitMillis() {
+        return dynamoDbWaitMillis;
+    }
+
+    public double getConsumedCapacity() {
+        return consumedCapacity;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getErrorClass() {
+        return errorClass;
+    }
+
+    public boolean isServerError() {
+        return statusCode >= 500;
+    }
+
+    public boolean isClientError() {
+        return statusCode >= 400 && statusCode < 500 && statusCode != 429;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    // Cuenta los bytes UTF-8 sin copiar el string a un arreglo de bytes
+    static long utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,153 @@
+package cl.rosta;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// OutputStream que sube a S3 por partes (multipart upload), con un solo buffer del tamaño
+// de una parte en memoria sin importar el tamaño total del archivo.
+// El objeto solo se publica con complete(); close() sin complete() aborta la subida,
+// así una escritura que falla a mitad de camino nunca deja un archivo truncado en S3
+public class S3MultipartOutputStream extends OutputStream {
+
+    private static final int PART_SIZE = 8 * 1024 * 1024;
+
+    private final S3Client s3Client;
+    private final String bucket;
+    private final String key;
+    private final byte[] buffer = new byte[PART_SIZE];
+    private final List<CompletedPart> completedParts = new ArrayList<>();
+
+    private int position;
+    private String uploadId;
+    private boolean completed;
+    private boolean closed;
+
+    public S3MultipartOutputStream(S3Client s3Client, String bucket, String key) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (position == buffer.length) {
+            uploadPart();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            if (position == buffer.length) {
+                uploadPart();
+            }
+            int chunk = Math.min(length, buffer.length - position);
+            System.arraycopy(bytes, offset, buffer, position, chunk);
+            position += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    // Sube lo que queda en el buffer y publica el objeto
+    public void complete() throws IOException {
+        ensureOpen();
+        completed = true;
+
+        try {
+            if (uploadId == null) {
+                // Archivo pequeño: basta con un PutObject
+                s3Client.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(), currentPart());
+                return;
+            }
+
+            if (position > 0) {
+                uploadPart();
+            }
+
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+        } catch (Exception e) {
+            abort();
+            throw new IOException("Error uploading to s3://" + bucket + "/" + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        // Sin complete() (por ejemplo tras un error) las partes subidas se descartan
+        if (!completed) {
+            abort();
+        }
+    }
+
+    public void abort() {
+        if (uploadId != null) {
+            try {
+                s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .build());
+            } catch (Exception e) {
+                // Se ignora: la regla de ciclo de vida del bucket limpia las subidas incompletas
+            }
+            uploadId = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed || completed) {
+            throw new IOException("Upload to s3://" + bucket + "/" + key + " is already closed");
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        try {
+            if (uploadId == null) {
+                uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .build()).uploadId();
+            }
+
+            int partNumber = completedParts.size() + 1;
+            UploadPartResponse response = s3Client.uploadPart(UploadPartRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .partNumber(partNumber)
+                    .build(), currentPart());
+
+            completedParts.add(CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+            position = 0;
+        } catch (Exception e) {
+            abort();
+            throw new IOException("Error uploading part to s3://" + bucket + "/" + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    // El cuerpo se lee directamente del buffer, sin copiarlo
+    private RequestBody currentPart() {
+        return RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, position), position);
+    }
+}
@@ -0,0 +1,284 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// GET /book/search?q=: búsqueda por título, autor y prestatario sobre books_search.
+// Solo la palabra más selectiva (la más larga) se consulta en el índice, en orden de rank (su mejor
+// puntaje primero); las demás se comprueban en memoria con los campos que cada entrada copia del libro.
+// Cada solicitud lee como máximo MAX_ENTRIES_READ entradas: si no alcanzan para llenar la página, devuelve
+// las que encontró junto con next, que es la clave de la última entrada leída
+public class SearchBooksLambdaHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 100;
+    private static final int MAX_QUERY_TERMS = 5;
+    // Tope de entradas del índice leídas por solicitud, coincidan o no con las demás palabras
+    static final int MAX_ENTRIES_READ = 500;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
+    private final ObjectMapper objectMapper;
+    private final MetricsSink metricsSink;
+
+    public SearchBooksLambdaHandler() {
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build(), new StdoutMetricsSink());
+    }
+
+    SearchBooksLambdaHandler(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, MetricsSink metricsSink) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
+        this.objectMapper = new ObjectMapper();
+        this.metricsSink = metricsSink;
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
+        RequestMetrics metrics = RequestMetrics.start("GET /book/search", event.getBody());
+        APIGatewayProxyResponseEvent response = processRequest(event, context, metrics);
+        metrics.finish(response);
+        metricsSink.emit(metrics);
+        return response;
+    }
+
+    private APIGatewayProxyResponseEvent processRequest(APIGatewayProxyRequestEvent event, Context context, RequestMetrics metrics) {
+        try {
+            Map<String, String> queryParameters = event.getQueryStringParameters() != null ? event.getQueryStringParameters() : Map.of();
+
+            String query = queryParameters.get("q");
+            List<String> tokens = queryTokens(query);
+            if (tokens.isEmpty()) {
+                return createBadRequestResponse("q must contain at least one word of " + SearchIndex.MIN_PREFIX + " or more characters");
+            }
+
+            // Un término más largo apunta a menos libros; las demás palabras se filtran sin leer más del índice
+            String term = indexTerm(Collections.max(tokens, Comparator.comparingInt((String token) -> indexTerm(token).length())));
+            int limit = parseLimit(queryParameters.get("limit"));
+            Map<String, AttributeValue> exclusiveStartKey = decodeNextToken(queryParameters.get("next"), term);
+
+            Map<String, Object> result = search(query, tokens, term, exclusiveStartKey, limit, metrics);
+
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(200);
+            response.setBody(objectMapper.writeValueAsString(result));
+            return response;
+
+        } catch (IllegalArgumentException error) {
+            return createBadRequestResponse(error.getMessage());
+
+        } catch (Exception error) {
+            context.getLogger().log("Error: " + error.getMessage());
+            metrics.recordError(error);
+
+            ThrottledException throttled = ThrottledException.find(error);
+            if (throttled != null) {
+                return createTooManyRequestsResponse(throttled.getRetryAfterSeconds());
+            }
+
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", error.getMessage());
+
+            try {
+                APIGatewayProxyResponseEvent errorResponse = new APIGatewayProxyResponseEvent();
+                errorResponse.setStatusCode(500);
+                errorResponse.setBody(objectMapper.writeValueAsString(errorMap));
+                return errorResponse;
+            } catch (Exception e) {
+                APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+                fallbackResponse.setStatusCode(500);
+                fallbackResponse.setBody("{\"message\": \"Internal server error\"}");
+                return fallbackResponse;
+            }
+        }
+    }
+
+    // Palabras de la consulta normalizadas igual que al indexar, sin repetir y sin las demasiado cortas
+    private List<String> queryTokens(String query) {
+        List<String> tokens = new ArrayList<>();
+        if (query == null) {
+            return tokens;
+        }
+        for (String token : new LinkedHashSet<>(SearchIndex.tokenize(query))) {
+            if (token.length() >= SearchIndex.MIN_PREFIX && tokens.size() < MAX_QUERY_TERMS) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private Map<String, Object> search(String query, List<String> tokens, String term,
+                                       Map<String, AttributeValue> exclusiveStartKey, int limit, RequestMetrics metrics) {
+        try {
+            List<Map<String, Object>> items = new ArrayList<>();
+            int read = 0;
+
+            // Cada Query pide a lo sumo las entradas que faltan para la página, así la página nunca se pasa
+            // y la siguiente empieza justo después de la última entrada leída
+            do {
+                QueryRequest.Builder queryRequestBuilder = QueryRequest.builder()
+                        .tableName(SearchIndex.TABLE)
+                        .keyConditionExpression("#term = :term")
+                        .expressionAttributeNames(Map.of("#term", "term"))
+                        .expressionAttributeValues(Map.of(":term", AttributeValue.builder().s(term).build()))
+                        .limit(Math.min(limit - items.size(), MAX_ENTRIES_READ - read))
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+                if (exclusiveStartKey != null) {
+                    queryRequestBuilder.exclusiveStartKey(exclusiveStartKey);
+                }
+                QueryRequest queryRequest = queryRequestBuilder.build();
+
+                QueryResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.query(queryRequest), QueryResponse::consumedCapacity);
+                read += response.items().size();
+
+                for (Map<String, AttributeValue> entry : response.items()) {
+                    Integer score = score(entry, tokens);
+                    if (score == null) {
+                        continue;
+                    }
+
+                    Map<String, Object> book = new LinkedHashMap<>();
+                    book.put("id", stringValue(entry.get("book_id")));
+                    book.put("title", stringValue(entry.get("title")));
+                    book.put("author", stringValue(entry.get("author")));
+                    book.put("prestado_a", stringValue(entry.get("prestado_a")));
+                    book.put("score", score);
+                    items.add(book);
+                }
+
+                exclusiveStartKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty() ? response.lastEvaluatedKey() : null;
+            } while (exclusiveStartKey != null && items.size() < limit && read < MAX_ENTRIES_READ);
+
+            metrics.addItems(items.size());
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("query", query);
+            result.put("items", items);
+            if (exclusiveStartKey != null) {
+                result.put("next", encodeNextToken(exclusiveStartKey));
+            }
+            return result;
+
+        } catch (Exception e) {
+            throw new RuntimeException("Error searching books: " + e.getMessage(), e);
+        }
+    }
+
+    private static String indexTerm(String token) {
+        return token.length() > SearchIndex.MAX_PREFIX ? token.substring(0, SearchIndex.MAX_PREFIX) : token;
+    }
+
+    // Puntaje del libro para la consulta, calculado con los mismos términos que se indexan a partir de los
+    // campos copiados en la entrada; null si alguna palabra no coincide. Las palabras más largas que
+    // MAX_PREFIX se confirman contra los tokens completos, porque los términos del índice se cortan ahí
+    private static Integer score(Map<String, AttributeValue> entry, List<String> tokens) {
+        Map<String, Integer> terms = SearchIndex.terms(entry);
+        List<String> bookTokens = null;
+        int score = 0;
+
+        for (String token : tokens) {
+            Integer termScore = terms.get(indexTerm(token));
+            if (termScore == null) {
+                return null;
+            }
+            if (token.length() > SearchIndex.MAX_PREFIX) {
+                if (bookTokens == null) {
+                    bookTokens = new ArrayList<>();
+                    for (String field : List.of("title", "author", "prestado_a")) {
+                        bookTokens.addAll(SearchIndex.tokenize(stringValue(entry.get(field))));
+                    }
+                }
+                if (bookTokens.stream().noneMatch(bookToken -> bookToken.startsWith(token))) {
+                    return null;
+                }
+            }
+            score += termScore;
+        }
+        return score;
+    }
+
+    private static String stringValue(AttributeValue value) {
+        return value != null ? value.s() : null;
+    }
+
+    private int parseLimit(String value) {
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            return Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    // La clave de continuación del índice (term, rank) viaja como JSON en base64 URL-safe
+    private String encodeNextToken(Map<String, AttributeValue> lastEvaluatedKey) throws Exception {
+        Map<String, String> token = new HashMap<>();
+        for (Map.Entry<String, AttributeValue> entry : lastEvaluatedKey.entrySet()) {
+            token.put(entry.getKey(), entry.getValue().s());
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(token));
+    }
+
+    // El token solo vale para el término que se consulta: uno de otra búsqueda se rechaza en vez de
+    // mandarle a DynamoDB una clave de otra partición
+    private Map<String, AttributeValue> decodeNextToken(String next, String term) {
+        if (next == null || next.isEmpty()) {
+            return null;
+        }
+        Map<String, String> token;
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(next), StandardCharsets.UTF_8);
+            token = objectMapper.readValue(json, new TypeReference<Map<String, String>>() {});
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid next token");
+        }
+        if (token.size() != 2 || !term.equals(token.get("term")) || token.get(SearchIndex.RANK) == null) {
+            throw new IllegalArgumentException("Invalid next token");
+        }
+        return Map.of(
+                "term", AttributeValue.builder().s(term).build(),
+                SearchIndex.RANK, AttributeValue.builder().s(token.get(SearchIndex.RANK)).build());
+    }
+
+    private APIGatewayProxyResponseEvent createBadRequestResponse(String message) {
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", message);
+
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(400);
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+            return response;
+        } catch (Exception e) {
+            APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+            fallbackResponse.setStatusCode(400);
+            fallbackResponse.setBody("{\"message\": \"Bad request\"}");
+            return fallbackResponse;
+        }
+    }
+
+    private APIGatewayProxyResponseEvent createTooManyRequestsResponse(long retryAfterSeconds) {
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+        response.setStatusCode(429);
+        response.setHeaders(Map.of("Retry-After", String.valueOf(retryAfterSeconds)));
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Too many requests, please retry later");
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+        } catch (Exception e) {
+            response.setBody("{\"message\": \"Too many requests\"}");
+        }
+        return response;
+    }
+}
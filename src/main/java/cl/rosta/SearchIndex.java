@@ -0,0 +1,202 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+// Índice invertido para búsqueda por título, autor y prestatario, guardado en la tabla books_search.
+// Cada término (token normalizado sin tildes, o un prefijo de él) apunta a los libros que lo contienen
+// con un puntaje según el campo: un token completo vale el doble que un prefijo.
+// La clave de rango (rank) es el puntaje invertido con ceros a la izquierda más el ID del libro, así una
+// Query por término devuelve primero los mejores resultados y se puede paginar con LastEvaluatedKey.
+// Si cambia algún campo indexado se borran los términos que desaparecen y se vuelven a escribir
+// todos los del libro (para actualizar puntajes y campos copiados); si no cambió ninguno no se escribe nada.
+// SearchReindexJob reconstruye el índice completo, incluidos los libros que quedaron sin entradas
+public class SearchIndex {
+
+    public static final String TABLE = "books_search";
+
+    public static final String RANK = "rank";
+    public static final int MAX_SCORE = 9999;
+
+    // Momento de escritura de la entrada (epoch millis); SearchReindexJob borra las que no reescribió
+    public static final String INDEXED_AT = "indexed_at";
+
+    public static final int MIN_PREFIX = 2;
+    public static final int MAX_PREFIX = 10;
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int BATCH_SIZE = 25;
+    private static final int MAX_UNPROCESSED_ATTEMPTS = 5;
+
+    // Campos indexados y su peso en el ranking
+    private static final Map<String, Integer> FIELD_WEIGHTS = new LinkedHashMap<>();
+
+    static {
+        FIELD_WEIGHTS.put("title", 3);
+        FIELD_WEIGHTS.put("author", 2);
+        FIELD_WEIGHTS.put("prestado_a", 1);
+    }
+
+    private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
+
+    public SearchIndex(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
+    }
+
+    // Para los handlers: el índice se escribe después de guardar books, así que si falla la escritura
+    // del libro ya quedó hecha y solo se registra el error; SearchReindexJob repara lo que falte
+    public void indexQuietly(String bookId, Map<String, AttributeValue> oldItem, Map<String, AttributeValue> newItem,
+                             Context context, RequestMetrics metrics) {
+        try {
+            index(bookId, oldItem, newItem, metrics);
+        } catch (Exception e) {
+            context.getLogger().log("Error updating search index for book " + bookId + ": " + e.getMessage());
+        }
+    }
+
+    // Actualiza el índice de un libro; oldItem es null al crear y newItem es null al eliminar
+    public void index(String bookId, Map<String, AttributeValue> oldItem, Map<String, AttributeValue> newItem, RequestMetrics metrics) {
+        Map<String, Integer> oldTerms = oldItem != null ? terms(oldItem) : Collections.emptyMap();
+        Map<String, Integer> newTerms = newItem != null ? terms(newItem) : Collections.emptyMap();
+
+        if (oldItem != null && newItem != null && !indexedFieldsChanged(oldItem, newItem)) {
+            return;
+        }
+
+        long indexedAt = System.currentTimeMillis();
+
+        List<WriteRequest> writes = new ArrayList<>();
+        // Si cambia el puntaje de un término cambia su clave, así que la entrada anterior también se borra
+        for (Map.Entry<String, Integer> term : oldTerms.entrySet()) {
+            if (!term.getValue().equals(newTerms.get(term.getKey()))) {
+                writes.add(WriteRequest.builder()
+                        .deleteRequest(DeleteRequest.builder().key(entryKey(term.getKey(), term.getValue(), bookId)).build())
+                        .build());
+            }
+        }
+        for (Map.Entry<String, Integer> entry : newTerms.entrySet()) {
+            writes.add(WriteRequest.builder()
+                    .putRequest(PutRequest.builder().item(entry(entry.getKey(), bookId, entry.getValue(), newItem, indexedAt)).build())
+                    .build());
+        }
+
+        for (int start = 0; start < writes.size(); start += BATCH_SIZE) {
+            writeBatch(writes.subList(start, Math.min(writes.size(), start + BATCH_SIZE)), metrics);
+        }
+    }
+
+    // Términos de un libro con su puntaje; un término presente en varios campos suma sus pesos
+    public static Map<String, Integer> terms(Map<String, AttributeValue> item) {
+        Map<String, Integer> terms = new HashMap<>();
+
+        for (Map.Entry<String, Integer> field : FIELD_WEIGHTS.entrySet()) {
+            AttributeValue value = item.get(field.getKey());
+            if (value == null || value.s() == null) {
+                continue;
+            }
+
+            // Dentro de un campo cada término cuenta una sola vez, con su mejor puntaje
+            Map<String, Integer> fieldTerms = new HashMap<>();
+            int weight = field.getValue();
+            for (String token : tokenize(value.s())) {
+                fieldTerms.merge(token, weight * 2, Math::max);
+                for (int length = MIN_PREFIX; length < token.length() && length <= MAX_PREFIX; length++) {
+                    fieldTerms.merge(token.substring(0, length), weight, Math::max);
+                }
+            }
+
+            for (Map.Entry<String, Integer> term : fieldTerms.entrySet()) {
+                terms.merge(term.getKey(), term.getValue(), Integer::sum);
+            }
+        }
+
+        return terms;
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        String normalized = TextNormalizer.normalize(text);
+        if (normalized == null) {
+            return tokens;
+        }
+        for (String token : TOKEN_SEPARATOR.split(normalized)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    public static Map<String, AttributeValue> entryKey(String term, int score, String bookId) {
+        return Map.of(
+                "term", AttributeValue.builder().s(term).build(),
+                RANK, AttributeValue.builder().s(rank(score, bookId)).build());
+    }
+
+    // "9993#<id>" para un puntaje de 6: en orden ascendente los puntajes altos van primero y los empates por ID
+    public static String rank(int score, String bookId) {
+        return String.format(Locale.ROOT, "%04d#%s", MAX_SCORE - Math.min(score, MAX_SCORE), bookId);
+    }
+
+    // Entradas completas de un libro, para reconstruir el índice sin compararlo con una versión anterior
+    public static List<Map<String, AttributeValue>> entries(String bookId, Map<String, AttributeValue> item, long indexedAt) {
+        List<Map<String, AttributeValue>> entries = new ArrayList<>();
+        for (Map.Entry<String, Integer> term : terms(item).entrySet()) {
+            entries.add(entry(term.getKey(), bookId, term.getValue(), item, indexedAt));
+        }
+        return entries;
+    }
+
+    // Cada entrada copia los campos a mostrar, así la búsqueda no necesita leer la tabla books
+    private static Map<String, AttributeValue> entry(String term, String bookId, int score, Map<String, AttributeValue> item,
+                                                     long indexedAt) {
+        Map<String, AttributeValue> entry = new HashMap<>(entryKey(term, score, bookId));
+        entry.put("book_id", AttributeValue.builder().s(bookId).build());
+        entry.put("score", AttributeValue.builder().n(Integer.toString(score)).build());
+        entry.put(INDEXED_AT, AttributeValue.builder().n(Long.toString(indexedAt)).build());
+        for (String field : FIELD_WEIGHTS.keySet()) {
+            AttributeValue value = item.get(field);
+            if (value != null && value.s() != null) {
+                entry.put(field, value);
+            }
+        }
+        return entry;
+    }
+
+    private static boolean indexedFieldsChanged(Map<String, AttributeValue> oldItem, Map<String, AttributeValue> newItem) {
+        for (String field : FIELD_WEIGHTS.keySet()) {
+            if (!Objects.equals(oldItem.get(field), newItem.get(field))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeBatch(List<WriteRequest> batch, RequestMetrics metrics) {
+        List<WriteRequest> pending = batch;
+
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            if (attempt > MAX_UNPROCESSED_ATTEMPTS) {
+                throw new ThrottledException("Search index entries left unprocessed", 1);
+            }
+
+            BatchWriteItemRequest batchWriteItemRequest = BatchWriteItemRequest.builder()
+                    .requestItems(Map.of(TABLE, pending))
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                    .build();
+
+            BatchWriteItemResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.batchWriteItem(batchWriteItemRequest), r -> null);
+            response.consumedCapacity().forEach(metrics::addConsumedCapacity);
+
+            pending = response.hasUnprocessedItems()
+                    ? response.unprocessedItems().getOrDefault(TABLE, Collections.emptyList())
+                    : Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Reconstruye books_search a partir de la tabla books:
+// 1. escribe todas las entradas de cada libro (libros anteriores al índice, importados o con escrituras fallidas)
+// 2. recorre books_search y borra las entradas escritas antes de empezar: cada entrada vigente se reescribió
+//    en el paso 1 (o la escribió un handler después), así que las que quedan son de términos que el libro
+//    ya no tiene o de libros que no existen
+// Ningún paso guarda estado por libro, así que la memoria no crece con la biblioteca. Un libro modificado
+// mientras corre puede quedar con entradas viejas, así que conviene ejecutarlo sin escrituras en curso;
+// se puede repetir sin problema
+public class SearchReindexJob implements RequestHandler<Map<String, Object>, Map<String, Object>> {
+
+    private static final int BATCH_SIZE = 25;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
+    private final ObjectMapper objectMapper;
+
+    public SearchReindexJob() {
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build());
+    }
+
+    SearchReindexJob(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
+        this.objectMapper = new ObjectMapper();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Object> summary = new SearchReindexJob().reindex();
+        System.out.println(new ObjectMapper().writeValueAsString(summary));
+        System.exit(0);
+    }
+
+    @Override
+    public Map<String, Object> handleRequest(Map<String, Object> input, Context context) {
+        try {
+            Map<String, Object> summary = reindex();
+            context.getLogger().log("Search reindex finished: " + objectMapper.writeValueAsString(summary));
+            return summary;
+        } catch (Exception e) {
+            context.getLogger().log("Error: " + e.getMessage());
+            throw new RuntimeException("Error reindexing books: " + e.getMessage(), e);
+        }
+    }
+
+    public Map<String, Object> reindex() throws InterruptedException {
+        long start = System.nanoTime();
+        long startedAt = System.currentTimeMillis();
+        long books = 0;
+        long entriesWritten = 0;
+
+        // 1. Escribir las entradas de todos los libros
+        List<WriteRequest> batch = new ArrayList<>(BATCH_SIZE);
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            ScanRequest.Builder scanRequestBuilder = ScanRequest.builder()
+                    .tableName("books")
+                    .projectionExpression("#id, #title, #author, #borrower")
+                    .expressionAttributeNames(Map.of(
+                            "#id", "id", "#title", "title", "#author", "author", "#borrower", "prestado_a"));
+            if (lastEvaluatedKey != null) {
+                scanRequestBuilder.exclusiveStartKey(lastEvaluatedKey);
+            }
+            ScanRequest scanRequest = scanRequestBuilder.build();
+            ScanResponse response = retryPolicy.execute(() -> dynamoDbClient.scan(scanRequest));
+
+            for (Map<String, AttributeValue> book : response.items()) {
+                books++;
+                for (Map<String, AttributeValue> entry : SearchIndex.entries(book.get("id").s(), book, startedAt)) {
+                    batch.add(WriteRequest.builder().putRequest(PutRequest.builder().item(entry).build()).build());
+                    if (batch.size() == BATCH_SIZE) {
+                        writeBatch(batch);
+                        entriesWritten += batch.size();
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+            }
+
+            lastEvaluatedKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                    ? response.lastEvaluatedKey() : null;
+        } while (lastEvaluatedKey != null);
+
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+            entriesWritten += batch.size();
+        }
+
+        // 2. Borrar las entradas que no se reescribieron. El borrado repite la condición del filtro,
+        // así no se pierde una entrada que un handler reescribió entre el scan y el borrado
+        Map<String, String> names = Map.of("#indexedAt", SearchIndex.INDEXED_AT);
+        Map<String, AttributeValue> values = Map.of(
+                ":startedAt", AttributeValue.builder().n(Long.toString(startedAt)).build());
+        String staleCondition = "attribute_not_exists(#indexedAt) OR #indexedAt < :startedAt";
+
+        long entriesDeleted = 0;
+        lastEvaluatedKey = null;
+        do {
+            ScanRequest.Builder scanRequestBuilder = ScanRequest.builder()
+                    .tableName(SearchIndex.TABLE)
+                    .filterExpression(staleCondition)
+                    .projectionExpression("#term, #rank")
+                    .expressionAttributeNames(Map.of("#term", "term", "#rank", SearchIndex.RANK, "#indexedAt", SearchIndex.INDEXED_AT))
+                    .expressionAttributeValues(values);
+            if (lastEvaluatedKey != null) {
+                scanRequestBuilder.exclusiveStartKey(lastEvaluatedKey);
+            }
+            ScanRequest scanRequest = scanRequestBuilder.build();
+            ScanResponse response = retryPolicy.execute(() -> dynamoDbClient.scan(scanRequest));
+
+            // La proyección deja solo la clave de cada entrada (term, rank)
+            for (Map<String, AttributeValue> entry : response.items()) {
+                DeleteItemRequest deleteItemRequest = DeleteItemRequest.builder()
+                        .tableName(SearchIndex.TABLE)
+                        .key(entry)
+                        .conditionExpression(staleCondition)
+                        .expressionAttributeNames(names)
+                        .expressionAttributeValues(values)
+                        .build();
+                try {
+                    retryPolicy.execute(() -> dynamoDbClient.deleteItem(deleteItemRequest));
+                    entriesDeleted++;
+                } catch (ConditionalCheckFailedException e) {
+                    // Se reescribió después del scan: sigue vigente
+                }
+            }
+
+            lastEvaluatedKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                    ? response.lastEvaluatedKey() : null;
+        } while (lastEvaluatedKey != null);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("books", books);
+        summary.put("entriesWritten", entriesWritten);
+        summary.put("entriesDeleted", entriesDeleted);
+        summary.put("seconds", (System.nanoTime() - start) / 1e9);
+        return summary;
+    }
+
+    // Reenvía los items sin procesar con backoff hasta que se escriban todos
+    private void writeBatch(List<WriteRequest> batch) throws InterruptedException {
+        List<WriteRequest> pending = batch;
+
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            BatchWriteItemRequest batchWriteItemRequest = BatchWriteItemRequest.builder()
+                    .requestItems(Map.of(SearchIndex.TABLE, pending))
+                    .build();
+            BatchWriteItemResponse response = retryPolicy.execute(() -> dynamoDbClient.batchWriteItem(batchWriteItemRequest));
+
+            pending = response.hasUnprocessedItems()
+                    ? response.unprocessedItems().getOrDefault(SearchIndex.TABLE, Collections.emptyList())
+                    : Collections.emptyList();
+            if (!pending.isEmpty()) {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(Math.min(1000, 25L << Math.min(attempt, 6)) + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package cl.rosta;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+// Salida de BookFileStorage que solo publica el archivo al llamar commit().
+// En disco local se escribe a un archivo temporal junto al destino y se renombra al final;
+// en S3 se completa la subida multipart. close() sin commit() descarta lo escrito
+public class StagedOutputStream extends FilterOutputStream {
+
+    private final S3MultipartOutputStream s3Output;
+    private final Path tempFile;
+    private final Path destination;
+
+    private boolean committed;
+    private boolean closed;
+
+    private StagedOutputStream(OutputStream out, S3MultipartOutputStream s3Output, Path tempFile, Path destination) {
+        super(out);
+        this.s3Output = s3Output;
+        this.tempFile = tempFile;
+        this.destination = destination;
+    }
+
+    static StagedOutputStream forS3(OutputStream out, S3MultipartOutputStream s3Output) {
+        return new StagedOutputStream(out, s3Output, null, null);
+    }
+
+    static StagedOutputStream forFile(OutputStream out, Path tempFile, Path destination) {
+        return new StagedOutputStream(out, null, tempFile, destination);
+    }
+
+    // FilterOutputStream escribe byte por byte; se delega el arreglo completo
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        out.write(bytes, offset, length);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        out.write(b);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!closed) {
+            out.flush();
+        }
+    }
+
+    public void commit() throws IOException {
+        ensureOpen();
+
+        // Escribir el final del gzip y vaciar los buffers antes de publicar
+        if (out instanceof GZIPOutputStream) {
+            ((GZIPOutputStream) out).finish();
+        }
+        out.flush();
+
+        if (s3Output != null) {
+            s3Output.complete();
+            committed = true;
+            out.close();
+        } else {
+            out.close();
+            Files.move(tempFile, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+        closed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        // Sin commit(): la subida a S3 se aborta al cerrar y el archivo temporal se borra
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Se ignora: lo escrito se descarta de todas formas
+        } finally {
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Output is already closed");
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package cl.rosta;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Escribe cada métrica como una línea EMF en stdout; CloudWatch Logs la convierte
+// en métricas de forma asíncrona, sin llamadas a la API durante la solicitud
+public class StdoutMetricsSink implements MetricsSink {
+
+    private final ObjectMapper objectMapper;
+
+    public StdoutMetricsSink() {
+        this.objectMapper = new ObjectMapper();
+    }
+
+    @Override
+    public void emit(RequestMetrics metrics) {
+        try {
+            System.out.println(metrics.toEmfJson(objectMapper));
+        } catch (Exception e) {
+            // Las métricas nunca deben afectar la respuesta de la solicitud
+            System.err.println("Error emitting metrics: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package cl.rosta;
+
+// Se lanza cuando DynamoDB sigue limitando las llamadas después de agotar los reintentos,
+// o cuando el circuit breaker está abierto. Los handlers la convierten en un 429
+public class ThrottledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public ThrottledException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public ThrottledException(String message, long retryAfterSeconds, Throwable cause) {
+        super(message, cause);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    // Busca una ThrottledException en la cadena de causas (los handlers la envuelven en RuntimeException)
+    public static ThrottledException find(Throwable error) {
+        Throwable current = error;
+        while (current != null) {
+            if (current instanceof ThrottledException) {
+                return (ThrottledException) current;
+            }
+            current = current.getCause();
+        }
+        return null;
+    }
+}
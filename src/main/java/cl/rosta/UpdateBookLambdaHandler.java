@@ -6,7 +6,6 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 
@@ -14,18 +13,37 @@ import java.util.*;
 
 public class UpdateBookLambdaHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     
+    // Veces que se vuelve a leer el libro si otra solicitud cambia su prestatario antes de actualizarlo
+    private static final int MAX_CONFLICT_RETRIES = 3;
+    
     private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbRetryPolicy retryPolicy;
     private final ObjectMapper objectMapper;
+    private final MetricsSink metricsSink;
+    private final SearchIndex searchIndex;
     
     public UpdateBookLambdaHandler() {
-        this.dynamoDbClient = DynamoDbClient.builder()
-                .region(Region.US_EAST_1)
-                .build();
+        this(DynamoDbClients.create(), DynamoDbRetryPolicy.builder().build(), new StdoutMetricsSink());
+    }
+    
+    UpdateBookLambdaHandler(DynamoDbClient dynamoDbClient, DynamoDbRetryPolicy retryPolicy, MetricsSink metricsSink) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.retryPolicy = retryPolicy;
         this.objectMapper = new ObjectMapper();
+        this.metricsSink = metricsSink;
+        this.searchIndex = new SearchIndex(dynamoDbClient, retryPolicy);
     }
     
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
+        RequestMetrics metrics = RequestMetrics.start("PUT /book/{id}", event.getBody());
+        APIGatewayProxyResponseEvent response = processRequest(event, context, metrics);
+        metrics.finish(response);
+        metricsSink.emit(metrics);
+        return response;
+    }
+    
+    private APIGatewayProxyResponseEvent processRequest(APIGatewayProxyRequestEvent event, Context context, RequestMetrics metrics) {
         try {
             // Obtener el ID del libro de los parámetros de la ruta
             Map<String, String> pathParameters = event.getPathParameters();
@@ -39,23 +57,79 @@ public class UpdateBookLambdaHandler implements RequestHandler<APIGatewayProxyRe
                 return createBadRequestResponse("Book ID is required");
             }
             
-            // Analizar los datos del libro recibidos del cuerpo de la solicitud
-            Map<String, Object> bookUpdates = objectMapper.readValue(event.getBody(), Map.class);
-            
-            //  Eliminar el ID de las actualizaciones si está presente (no se puede actualizar la clave)
-            bookUpdates.remove("id");
+            // Leer los cambios del cuerpo directamente al formato AttributeValue de DynamoDB
+            // (el decodificador ignora el ID, que no se puede actualizar, y borrower_key y borrower_name, que se calculan aquí)
+            Map<String, AttributeValue> bookUpdates = BookJsonDecoder.decodeUpdates(event.getBody()).getItem();
             
             if (bookUpdates.isEmpty()) {
                 return createBadRequestResponse("No fields to update");
             }
             
-            // Verificar primero si el libro existe
-            if (!bookExists(bookId)) {
-                return createNotFoundResponse();
+            // Leer el libro y actualizarlo solo si su prestatario no cambió desde la lectura;
+            // si otra solicitud lo cambió entretanto, se vuelve a leer
+            Map<String, AttributeValue> currentItem;
+            Map<String, AttributeValue> mergedItem;
+            Map<String, Object> updatedBook;
+            int attempt = 0;
+            while (true) {
+                currentItem = getBookItem(bookId, metrics);
+                if (currentItem == null) {
+                    return createNotFoundResponse();
+                }
+                
+                // Recalcular la clave del prestatario con los valores actualizados
+                mergedItem = new HashMap<>(currentItem);
+                for (Map.Entry<String, AttributeValue> entry : bookUpdates.entrySet()) {
+                    if (isRemoval(entry.getValue())) {
+                        mergedItem.remove(entry.getKey());
+                    } else {
+                        mergedItem.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                AttributeValue currentKeyValue = currentItem.get(BorrowerKeys.ATTRIBUTE);
+                String currentBorrowerKey = currentKeyValue != null ? currentKeyValue.s() : null;
+                String borrowerKey = BorrowerKeys.of(mergedItem);
+                Map<String, AttributeValue> updates = new HashMap<>(bookUpdates);
+                if (borrowerKey != null) {
+                    updates.put(BorrowerKeys.ATTRIBUTE, AttributeValue.builder().s(borrowerKey).build());
+                    mergedItem.put(BorrowerKeys.ATTRIBUTE, updates.get(BorrowerKeys.ATTRIBUTE));
+                } else {
+                    mergedItem.remove(BorrowerKeys.ATTRIBUTE);
+                }
+                // borrower_name sigue a prestado_a; si el libro deja de estar prestado se quita
+                String borrowerName = BorrowerKeys.nameOf(mergedItem);
+                if (borrowerName != null) {
+                    updates.put(BorrowerKeys.NAME_ATTRIBUTE, AttributeValue.builder().s(borrowerName).build());
+                    mergedItem.put(BorrowerKeys.NAME_ATTRIBUTE, updates.get(BorrowerKeys.NAME_ATTRIBUTE));
+                } else if (mergedItem.remove(BorrowerKeys.NAME_ATTRIBUTE) != null) {
+                    updates.put(BorrowerKeys.NAME_ATTRIBUTE, AttributeValue.builder().nul(true).build());
+                }
+                
+                Update bookUpdate = buildBookUpdate(bookId, updates, currentBorrowerKey, borrowerKey == null && currentBorrowerKey != null);
+                
+                if (Objects.equals(currentBorrowerKey, borrowerKey)) {
+                    updatedBook = updateBook(bookUpdate, metrics);
+                } else {
+                    // Cambió el prestatario: el libro y los préstamos activos de ambos prestatarios
+                    // se actualizan en una sola transacción
+                    AttributeValue label = mergedItem.get("prestado_a");
+                    updatedBook = moveLoan(bookUpdate, currentBorrowerKey, borrowerKey, label != null ? label.s() : null, mergedItem, metrics);
+                    if (updatedBook != null && currentBorrowerKey != null) {
+                        clearInactiveBorrower(currentBorrowerKey, context, metrics);
+                    }
+                }
+                
+                if (updatedBook != null) {
+                    break;
+                }
+                if (++attempt >= MAX_CONFLICT_RETRIES) {
+                    return createConflictResponse();
+                }
             }
             
-            // Actualizar el libro
-            Map<String, Object> updatedBook = updateBook(bookId, bookUpdates);
+            // Si cambió un campo indexado se reescriben los términos del libro; si no, solo se indexa
+            // cuando el libro todavía no tiene entradas en el índice
+            searchIndex.indexQuietly(bookId, currentItem, mergedItem, context, metrics);
             
             // Devolver respuesta de éxito
             APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
@@ -63,8 +137,19 @@ public class UpdateBookLambdaHandler implements RequestHandler<APIGatewayProxyRe
             response.setBody(objectMapper.writeValueAsString(updatedBook));
             return response;
                     
+        } catch (InvalidBookJsonException error) {
+            // Cuerpo inválido o demasiado grande
+            return createBadRequestResponse(error.getMessage());
+            
         } catch (Exception error) {
             context.getLogger().log("Error: " + error.getMessage());
+            metrics.recordError(error);
+            
+            // DynamoDB sigue limitando las llamadas: pedir al cliente que reintente más tarde
+            ThrottledException throttled = ThrottledException.find(error);
+            if (throttled != null) {
+                return createTooManyRequestsResponse(throttled.getRetryAfterSeconds());
+            }
             
             // Crear mapa de respuestas de error
             Map<String, String> errorMap = new HashMap<>();
@@ -85,82 +170,163 @@ public class UpdateBookLambdaHandler implements RequestHandler<APIGatewayProxyRe
         }
     }
     
-    private boolean bookExists(String bookId) {
+    private Map<String, AttributeValue> getBookItem(String bookId, RequestMetrics metrics) {
         try {
             GetItemRequest getItemRequest = GetItemRequest.builder()
                     .tableName("books")
                     .key(Map.of("id", AttributeValue.builder().s(bookId).build()))
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
                     .build();
             
-            GetItemResponse response = dynamoDbClient.getItem(getItemRequest);
-            return !response.item().isEmpty();
+            GetItemResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.getItem(getItemRequest), GetItemResponse::consumedCapacity);
+            return response.item().isEmpty() ? null : response.item();
             
         } catch (Exception e) {
             throw new RuntimeException("Error checking if book exists: " + e.getMessage(), e);
         }
     }
     
-    private Map<String, Object> updateBook(String bookId, Map<String, Object> updates) {
-        try {
-        	// Construir la expresión de actualizacion
-            StringBuilder updateExpression = new StringBuilder("SET ");
-            Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
-            Map<String, String> expressionAttributeNames = new HashMap<>();
-            
-            List<String> updateClauses = new ArrayList<>();
-            int index = 0;
+    // Arma la actualización del libro, condicionada a que borrower_key siga siendo el leído.
+    // Los campos enviados como null se quitan del libro en vez de guardarse como NULL
+    private Update buildBookUpdate(String bookId, Map<String, AttributeValue> updates, String expectedBorrowerKey,
+                                   boolean removeBorrowerKey) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        Map<String, String> expressionAttributeNames = new HashMap<>();
+        
+        List<String> setClauses = new ArrayList<>();
+        List<String> removeClauses = new ArrayList<>();
+        int index = 0;
+        
+        for (Map.Entry<String, AttributeValue> entry : updates.entrySet()) {
+            String attributeName = "#attr" + index;
+            expressionAttributeNames.put(attributeName, entry.getKey());
             
-            for (Map.Entry<String, Object> entry : updates.entrySet()) {
-                String key = entry.getKey();
-                Object value = entry.getValue();
-                
-                String attributeName = "#attr" + index;
+            if (isRemoval(entry.getValue())) {
+                removeClauses.add(attributeName);
+            } else {
                 String attributeValue = ":val" + index;
-                
-                expressionAttributeNames.put(attributeName, key);
-                expressionAttributeValues.put(attributeValue, convertToAttributeValue(value));
-                
-                updateClauses.add(attributeName + " = " + attributeValue);
-                index++;
+                expressionAttributeValues.put(attributeValue, entry.getValue());
+                setClauses.add(attributeName + " = " + attributeValue);
             }
-            
-            updateExpression.append(String.join(", ", updateClauses));
-            
+            index++;
+        }
+        
+        // Sin prestatario el libro sale del índice borrower_key-index
+        expressionAttributeNames.put("#borrowerKey", BorrowerKeys.ATTRIBUTE);
+        if (removeBorrowerKey) {
+            removeClauses.add("#borrowerKey");
+        }
+        
+        List<String> actions = new ArrayList<>();
+        if (!setClauses.isEmpty()) {
+            actions.add("SET " + String.join(", ", setClauses));
+        }
+        if (!removeClauses.isEmpty()) {
+            actions.add("REMOVE " + String.join(", ", removeClauses));
+        }
+        
+        expressionAttributeNames.put("#id", "id");
+        String condition;
+        if (expectedBorrowerKey != null) {
+            condition = "attribute_exists(#id) AND #borrowerKey = :expectedBorrowerKey";
+            expressionAttributeValues.put(":expectedBorrowerKey", AttributeValue.builder().s(expectedBorrowerKey).build());
+        } else {
+            condition = "attribute_exists(#id) AND attribute_not_exists(#borrowerKey)";
+        }
+        
+        Update.Builder updateBuilder = Update.builder()
+                .tableName("books")
+                .key(Map.of("id", AttributeValue.builder().s(bookId).build()))
+                .updateExpression(String.join(" ", actions))
+                .conditionExpression(condition)
+                .expressionAttributeNames(expressionAttributeNames);
+        // Si solo se quitan campos de un libro sin prestatario no hay valores, y DynamoDB no acepta un mapa vacío
+        if (!expressionAttributeValues.isEmpty()) {
+            updateBuilder.expressionAttributeValues(expressionAttributeValues);
+        }
+        return updateBuilder.build();
+    }
+    
+    // BookJsonDecoder.decodeUpdates deja los campos null del cuerpo como NULL
+    private static boolean isRemoval(AttributeValue value) {
+        return Boolean.TRUE.equals(value.nul());
+    }
+    
+    // Devuelve null si el libro cambió (o se eliminó) desde la lectura
+    private Map<String, Object> updateBook(Update bookUpdate, RequestMetrics metrics) {
+        try {
             // Ejecutar la actualizacion
             UpdateItemRequest updateItemRequest = UpdateItemRequest.builder()
-                    .tableName("books")
-                    .key(Map.of("id", AttributeValue.builder().s(bookId).build()))
-                    .updateExpression(updateExpression.toString())
-                    .expressionAttributeNames(expressionAttributeNames)
-                    .expressionAttributeValues(expressionAttributeValues)
+                    .tableName(bookUpdate.tableName())
+                    .key(bookUpdate.key())
+                    .updateExpression(bookUpdate.updateExpression())
+                    .conditionExpression(bookUpdate.conditionExpression())
+                    .expressionAttributeNames(bookUpdate.expressionAttributeNames())
+                    .expressionAttributeValues(bookUpdate.expressionAttributeValues())
                     .returnValues(ReturnValue.ALL_NEW)
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
                     .build();
             
-            UpdateItemResponse response = dynamoDbClient.updateItem(updateItemRequest);
+            UpdateItemResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.updateItem(updateItemRequest), UpdateItemResponse::consumedCapacity);
+            metrics.addItems(1);
             
             return convertFromAttributeValueMap(response.attributes());
             
+        } catch (ConditionalCheckFailedException e) {
+            return null;
         } catch (Exception e) {
             throw new RuntimeException("Error updating book: " + e.getMessage(), e);
         }
     }
     
-    private AttributeValue convertToAttributeValue(Object value) {
-        if (value instanceof String) {
-            return AttributeValue.builder().s((String) value).build();
-        } else if (value instanceof Number) {
-            return AttributeValue.builder().n(value.toString()).build();
-        } else if (value instanceof Boolean) {
-            return AttributeValue.builder().bool((Boolean) value).build();
-        } else if (value != null) {
-        	// Para objetos complejos, convertir a string
-            try {
-                return AttributeValue.builder().s(objectMapper.writeValueAsString(value)).build();
-            } catch (Exception e) {
-                return AttributeValue.builder().s(value.toString()).build();
+    // Actualiza el libro y mueve su préstamo activo de un prestatario a otro en una sola transacción,
+    // así un reintento o una falla a mitad de camino no descuadran active_loans.
+    // Devuelve null si el libro cambió (o se eliminó) desde la lectura
+    private Map<String, Object> moveLoan(Update bookUpdate, String fromBorrowerKey, String toBorrowerKey, String label,
+                                         Map<String, AttributeValue> mergedItem, RequestMetrics metrics) {
+        try {
+            List<TransactWriteItem> transactItems = new ArrayList<>();
+            transactItems.add(TransactWriteItem.builder().update(bookUpdate).build());
+            if (fromBorrowerKey != null) {
+                transactItems.add(TransactWriteItem.builder()
+                        .update(LoanHistory.activeLoansUpdate(fromBorrowerKey, null, -1))
+                        .build());
             }
-        } else {
-            return AttributeValue.builder().nul(true).build();
+            if (toBorrowerKey != null) {
+                transactItems.add(TransactWriteItem.builder()
+                        .update(LoanHistory.activeLoansUpdate(toBorrowerKey, label, 1))
+                        .build());
+            }
+            
+            TransactWriteItemsRequest transactWriteItemsRequest = TransactWriteItemsRequest.builder()
+                    .transactItems(transactItems)
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                    .build();
+            
+            TransactWriteItemsResponse response = metrics.recordDynamoDbCall(retryPolicy, () -> dynamoDbClient.transactWriteItems(transactWriteItemsRequest), r -> null);
+            response.consumedCapacity().forEach(metrics::addConsumedCapacity);
+            metrics.addItems(1);
+            
+            // Las transacciones no devuelven el item: la respuesta se arma con lo leído más los cambios
+            return convertFromAttributeValueMap(mergedItem);
+            
+        } catch (TransactionCanceledException e) {
+            if (e.hasCancellationReasons() && "ConditionalCheckFailed".equals(e.cancellationReasons().get(0).code())) {
+                return null;
+            }
+            throw new RuntimeException("Error updating book: " + e.getMessage(), e);
+        } catch (Exception e) {
+            throw new RuntimeException("Error updating book: " + e.getMessage(), e);
+        }
+    }
+    
+    // El préstamo ya se movió: si falla, el prestatario anterior queda marcado como activo sin préstamos
+    // y el notificador solo hace una Query vacía por él
+    private void clearInactiveBorrower(String borrowerKey, Context context, RequestMetrics metrics) {
+        try {
+            LoanHistory.clearInactiveBorrower(dynamoDbClient, retryPolicy, borrowerKey, metrics);
+        } catch (Exception e) {
+            context.getLogger().log("Error clearing inactive borrower " + borrowerKey + ": " + e.getMessage());
         }
     }
     
@@ -223,6 +389,23 @@ public class UpdateBookLambdaHandler implements RequestHandler<APIGatewayProxyRe
         }
     }
     
+    private APIGatewayProxyResponseEvent createConflictResponse() {
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Book was modified concurrently, please retry");
+            
+            APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+            response.setStatusCode(409);
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+            return response;
+        } catch (Exception e) {
+            APIGatewayProxyResponseEvent fallbackResponse = new APIGatewayProxyResponseEvent();
+            fallbackResponse.setStatusCode(409);
+            fallbackResponse.setBody("{\"message\": \"Conflict\"}");
+            return fallbackResponse;
+        }
+    }
+    
     private APIGatewayProxyResponseEvent createBadRequestResponse(String message) {
         try {
             Map<String, String> errorMap = new HashMap<>();
@@ -239,4 +422,18 @@ public class UpdateBookLambdaHandler implements RequestHandler<APIGatewayProxyRe
             return fallbackResponse;
         }
     }
+    
+    private APIGatewayProxyResponseEvent createTooManyRequestsResponse(long retryAfterSeconds) {
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
+        response.setStatusCode(429);
+        response.setHeaders(Map.of("Retry-After", String.valueOf(retryAfterSeconds)));
+        try {
+            Map<String, String> errorMap = new HashMap<>();
+            errorMap.put("message", "Too many requests, please retry later");
+            response.setBody(objectMapper.writeValueAsString(errorMap));
+        } catch (Exception e) {
+            response.setBody("{\"message\": \"Too many requests\"}");
+        }
+        return response;
+    }
 }
\ No newline at end of file
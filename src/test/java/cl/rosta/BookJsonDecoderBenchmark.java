@@ -0,0 +1,99 @@
+package cl.rosta;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Compara el camino anterior de POST /book (ObjectMapper -> Map<String, Object> -> AttributeValue)
+// con BookJsonDecoder. Con el perfilador de GC, gc.alloc.rate.norm muestra los bytes asignados por cuerpo.
+// Ejecutar: mvn -q -B test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test.classpath
+//           java -cp target/classes:target/test-classes:$(cat target/test.classpath) cl.rosta.BookJsonDecoderBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookJsonDecoderBenchmark {
+
+    @Param({"flat", "nested"})
+    public String shape;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String body;
+
+    @Setup
+    public void setUp() {
+        String book = "\"title\": \"Cien años de soledad\", \"author\": \"Gabriel García Márquez\", "
+                + "\"prestado_a\": \"Ana Pérez\", \"email\": \"ana@example.com\", \"telefono\": \"+56 9 1234 5678\", "
+                + "\"prestado_fecha\": \"2024-05-01\", \"retorno_fecha\": \"2024-05-15\"";
+        body = "nested".equals(shape)
+                ? "{" + book + ", \"notas\": {\"estado\": \"bueno\", \"etiquetas\": [\"clásico\", \"novela\"]}}"
+                : "{" + book + "}";
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> objectMapper() throws Exception {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> book = objectMapper.readValue(body, Map.class);
+        return convertToAttributeValueMap(book);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> decoder() {
+        return BookJsonDecoder.decodeItem(body).getItem();
+    }
+
+    // Copia de la conversión que usaban los handlers antes de BookJsonDecoder
+    private Map<String, AttributeValue> convertToAttributeValueMap(Map<String, Object> map) {
+        Map<String, AttributeValue> result = new HashMap<>();
+
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+
+            if (value instanceof String) {
+                result.put(key, AttributeValue.builder().s((String) value).build());
+            } else if (value instanceof Number) {
+                result.put(key, AttributeValue.builder().n(value.toString()).build());
+            } else if (value instanceof Boolean) {
+                result.put(key, AttributeValue.builder().bool((Boolean) value).build());
+            } else if (value != null) {
+                try {
+                    result.put(key, AttributeValue.builder().s(objectMapper.writeValueAsString(value)).build());
+                } catch (Exception e) {
+                    result.put(key, AttributeValue.builder().s(value.toString()).build());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BookJsonDecoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
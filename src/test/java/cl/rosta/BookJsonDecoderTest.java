@@ -0,0 +1,134 @@
+package cl.rosta;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.StringWriter;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookJsonDecoderTest {
+
+    private static final String BODY = "{\"title\": \"Rayuela\", \"copias\": 2, \"notas\": {\"estado\": \"bueno\", \"etiquetas\": [\"novela\"]}}";
+
+    @Test
+    void apiAndImportStoreNestedValuesTheSameWay() throws Exception {
+        Map<String, AttributeValue> decoded = BookJsonDecoder.decodeItem(BODY).getItem();
+
+        Map<String, AttributeValue> imported;
+        try (JsonParser parser = new ObjectMapper().getFactory().createParser(BODY)) {
+            parser.nextToken();
+            imported = BookItemJson.read(parser);
+        }
+
+        assertEquals(imported, decoded);
+        assertEquals("{\"estado\":\"bueno\",\"etiquetas\":[\"novela\"]}", decoded.get("notas").s());
+    }
+
+    @Test
+    void oversizedNestedValueIsRejected() {
+        String body = "{\"notas\": [\"" + "x".repeat(BookJsonDecoder.MAX_STRING_LENGTH - 10) + "\", \"" + "y".repeat(20) + "\"]}";
+
+        assertThrows(InvalidBookJsonException.class, () -> BookJsonDecoder.decodeItem(body));
+    }
+
+    @Test
+    void nonStringValueInAStringFieldIsRejected() {
+        InvalidBookJsonException error = assertThrows(InvalidBookJsonException.class,
+                () -> BookJsonDecoder.decodeItem("{\"title\": 42}"));
+        assertEquals("Field title must be a string", error.getMessage());
+
+        assertThrows(InvalidBookJsonException.class, () -> BookJsonDecoder.decodeUpdates("{\"retorno_fecha\": [\"2024-05-15\"]}"));
+        assertThrows(InvalidBookJsonException.class, () -> BookJsonDecoder.decodeUpdates("{\"prestado_a\": {\"nombre\": \"Ana\"}}"));
+    }
+
+    @Test
+    void fieldLimitIsEnforced() {
+        assertEquals(BookJsonDecoder.MAX_FIELDS, BookJsonDecoder.decodeItem(bodyWithFields(BookJsonDecoder.MAX_FIELDS)).getItem().size());
+        assertThrows(InvalidBookJsonException.class, () -> BookJsonDecoder.decodeItem(bodyWithFields(BookJsonDecoder.MAX_FIELDS + 1)));
+    }
+
+    @Test
+    void bodySizeLimitIsEnforced() {
+        // {"notas":"..."} ocupa 12 caracteres además del valor
+        String atLimit = "{\"notas\":\"" + "x".repeat(BookJsonDecoder.MAX_STRING_LENGTH) + "\"}";
+        String padding = " ".repeat(BookJsonDecoder.MAX_BODY_CHARS - atLimit.length());
+        assertEquals(1, BookJsonDecoder.decodeItem(padding + atLimit).getItem().size());
+
+        assertThrows(InvalidBookJsonException.class, () -> BookJsonDecoder.decodeItem(" " + padding + atLimit));
+    }
+
+    @Test
+    void idAndBorrowerKeyFromTheClientAreIgnored() {
+        Map<String, AttributeValue> item = BookJsonDecoder.decodeItem(
+                "{\"id\": \"x\", \"borrower_key\": {\"otro\": [1, 2]}, \"title\": \"Rayuela\"}").getItem();
+
+        assertEquals(Map.of("title", AttributeValue.builder().s("Rayuela").build()), item);
+    }
+
+    @Test
+    void nullsAreDroppedOnCreateAndKeptOnUpdate() {
+        String body = "{\"title\": \"Rayuela\", \"retorno_fecha\": null}";
+
+        assertFalse(BookJsonDecoder.decodeItem(body).getItem().containsKey("retorno_fecha"));
+
+        Map<String, AttributeValue> updates = BookJsonDecoder.decodeUpdates(body).getItem();
+        assertEquals(Boolean.TRUE, updates.get("retorno_fecha").nul());
+        assertEquals("Rayuela", updates.get("title").s());
+    }
+
+    @Test
+    void nestedValuesAreStoredAsJsonAndWrittenBackAsJson() throws Exception {
+        BookJsonDecoder decoder = BookJsonDecoder.decodeItem(
+                "{\"notas\": {\"estado\": \"bueno\"}, \"etiquetas\": [\"novela\", 1, true, null], \"copias\": 2}");
+
+        Map<String, AttributeValue> item = decoder.getItem();
+        assertEquals("{\"estado\":\"bueno\"}", item.get("notas").s());
+        assertEquals("[\"novela\",1,true,null]", item.get("etiquetas").s());
+        assertEquals("2", item.get("copias").n());
+
+        StringWriter written = new StringWriter();
+        try (JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(written)) {
+            decoder.writeItem(generator);
+        }
+        JsonNode response = new ObjectMapper().readTree(written.toString());
+        assertEquals("bueno", response.get("notas").get("estado").asText());
+        assertEquals(4, response.get("etiquetas").size());
+        assertEquals(2, response.get("copias").asInt());
+    }
+
+    @Test
+    void nestingDeeperThanTheLimitIsRejected() {
+        String body = "{\"notas\": " + "[".repeat(BookJsonDecoder.MAX_DEPTH) + "]".repeat(BookJsonDecoder.MAX_DEPTH) + "}";
+
+        assertThrows(InvalidBookJsonException.class, () -> BookJsonDecoder.decodeItem(body));
+    }
+
+    @Test
+    void malformedJsonIsAnInvalidBook() {
+        InvalidBookJsonException error = assertThrows(InvalidBookJsonException.class, () -> BookJsonDecoder.decodeItem("{\"title\": "));
+
+        assertTrue(error.getMessage().startsWith("Invalid request body"));
+        assertThrows(InvalidBookJsonException.class, () -> BookJsonDecoder.decodeItem("[]"));
+        assertThrows(InvalidBookJsonException.class, () -> BookJsonDecoder.decodeItem("{} {}"));
+    }
+
+    private static String bodyWithFields(int fields) {
+        StringBuilder body = new StringBuilder("{");
+        for (int i = 0; i < fields; i++) {
+            if (i > 0) {
+                body.append(", ");
+            }
+            body.append("\"campo").append(i).append("\": ").append(i);
+        }
+        return body.append("}").toString();
+    }
+}
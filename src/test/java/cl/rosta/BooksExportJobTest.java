@@ -0,0 +1,202 @@
+package cl.rosta;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.InternalServerErrorException;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BooksExportJobTest {
+
+    @TempDir
+    Path directory;
+
+    private final RecordingS3Client s3Client = new RecordingS3Client();
+
+    @Test
+    void writesOneBookPerLine() throws Exception {
+        Path destination = directory.resolve("books.ndjson");
+
+        Map<String, Object> summary = job(new PagedScanClient(false)).export(destination.toString(), 1);
+
+        assertEquals(6L, summary.get("items"));
+        assertEquals(6, Files.readAllLines(destination).stream().filter(line -> !line.isEmpty()).count());
+        assertEquals(List.of(destination.getFileName()), listDirectory());
+    }
+
+    @Test
+    void failedScanDoesNotPublishLocalFile() throws Exception {
+        Path destination = directory.resolve("books.ndjson.gz");
+
+        assertThrows(Exception.class, () -> job(new PagedScanClient(true)).export(destination.toString(), 1));
+
+        // Ni el destino ni el archivo temporal quedan en el directorio
+        assertEquals(List.of(), listDirectory());
+    }
+
+    @Test
+    void errorInScannerFailsTheExport() {
+        Path destination = directory.resolve("books.ndjson");
+        StubDynamoDbClient client = new StubDynamoDbClient() {
+            @Override
+            public ScanResponse scan(ScanRequest request) {
+                throw new StackOverflowError();
+            }
+        };
+
+        // Antes el escritor esperaba para siempre el fin del segmento
+        assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertThrows(Exception.class, () -> job(client).export(destination.toString(), 2)));
+        assertFalse(Files.exists(destination));
+    }
+
+    @Test
+    void failedScanDoesNotPublishToS3() {
+        assertThrows(Exception.class, () -> job(new PagedScanClient(true)).export("s3://bucket/books.ndjson", 1));
+
+        assertFalse(s3Client.calls.contains("putObject"));
+        assertFalse(s3Client.calls.contains("completeMultipartUpload"));
+    }
+
+    @Test
+    void successfulExportPublishesToS3() throws Exception {
+        job(new PagedScanClient(false)).export("s3://bucket/books.ndjson", 1);
+
+        assertEquals(List.of("putObject"), s3Client.calls);
+    }
+
+    @Test
+    void closingWithoutCompleteAbortsMultipartUpload() throws IOException {
+        S3MultipartOutputStream out = new S3MultipartOutputStream(s3Client, "bucket", "books.ndjson");
+        // Más de una parte: obliga a iniciar la subida multipart
+        out.write(new byte[9 * 1024 * 1024]);
+        out.close();
+
+        assertEquals(List.of("createMultipartUpload", "uploadPart", "abortMultipartUpload"), s3Client.calls);
+    }
+
+    @Test
+    void completePublishesMultipartUpload() throws IOException {
+        S3MultipartOutputStream out = new S3MultipartOutputStream(s3Client, "bucket", "books.ndjson");
+        out.write(new byte[9 * 1024 * 1024]);
+        out.complete();
+        out.close();
+
+        assertEquals(List.of("createMultipartUpload", "uploadPart", "uploadPart", "completeMultipartUpload"), s3Client.calls);
+    }
+
+    private BooksExportJob job(DynamoDbClient client) {
+        DynamoDbRetryPolicy retryPolicy = DynamoDbRetryPolicy.builder().maxAttempts(1).build();
+        return new BooksExportJob(client, retryPolicy, new BookFileStorage(s3Client));
+    }
+
+    private List<Path> listDirectory() throws IOException {
+        List<Path> names = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> names.add(file.getFileName()));
+        }
+        return names;
+    }
+
+    // Devuelve dos páginas de tres libros; con failSecondPage la segunda página falla
+    private static class PagedScanClient extends StubDynamoDbClient {
+        private final boolean failSecondPage;
+
+        PagedScanClient(boolean failSecondPage) {
+            this.failSecondPage = failSecondPage;
+        }
+
+        @Override
+        public ScanResponse scan(ScanRequest request) {
+            boolean firstPage = !request.hasExclusiveStartKey();
+            if (!firstPage && failSecondPage) {
+                throw InternalServerErrorException.builder().message("Scan failed").build();
+            }
+
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                String id = (firstPage ? "a" : "b") + i;
+                items.add(Map.of("id", AttributeValue.builder().s(id).build(),
+                        "title", AttributeValue.builder().s("Libro " + id).build()));
+            }
+
+            ScanResponse.Builder response = ScanResponse.builder().items(items);
+            if (firstPage) {
+                response.lastEvaluatedKey(Map.of("id", AttributeValue.builder().s("a2").build()));
+            }
+            return response.build();
+        }
+    }
+
+    private static class RecordingS3Client implements S3Client {
+        private final List<String> calls = new ArrayList<>();
+
+        @Override
+        public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+            calls.add("putObject");
+            return PutObjectResponse.builder().build();
+        }
+
+        @Override
+        public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+            calls.add("createMultipartUpload");
+            return CreateMultipartUploadResponse.builder().uploadId("upload-1").build();
+        }
+
+        @Override
+        public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+            calls.add("uploadPart");
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        }
+
+        @Override
+        public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            calls.add("completeMultipartUpload");
+            return CompleteMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+            calls.add("abortMultipartUpload");
+            return AbortMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
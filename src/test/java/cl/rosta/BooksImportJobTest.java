@@ -0,0 +1,78 @@
+package cl.rosta;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BooksImportJobTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void throttlingDoesNotAbortTheImport() throws Exception {
+        Path source = directory.resolve("books.ndjson");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            lines.add("{\"id\":\"" + i + "\",\"title\":\"Libro " + i + "\",\"prestado_a\":\"Ana Pérez\"}");
+        }
+        lines.add("{\"id\":\"sin-prestatario\",\"title\":\"Libro\",\"borrower_key\":\"vieja\"}");
+        Files.write(source, lines);
+
+        ThrottlingClient client = new ThrottlingClient();
+        DynamoDbRetryPolicy retryPolicy = DynamoDbRetryPolicy.builder().maxAttempts(1).build();
+        // Sin backoff real: la prueba debe tardar milisegundos
+        BooksImportJob job = new BooksImportJob(client, retryPolicy, new BookFileStorage(), 0);
+
+        long start = System.nanoTime();
+        Map<String, Object> summary = job.importBooks(source.toString(), 1, 1000);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(31L, summary.get("written"));
+        assertEquals(31, client.items.size());
+        assertEquals("ana perez", client.items.get("7").get(BorrowerKeys.ATTRIBUTE).s());
+        assertFalse(client.items.get("sin-prestatario").containsKey(BorrowerKeys.ATTRIBUTE));
+    }
+
+    // La primera llamada falla por throttling y la segunda deja un item sin procesar
+    private static class ThrottlingClient extends StubDynamoDbClient {
+        private final Map<String, Map<String, AttributeValue>> items = new ConcurrentHashMap<>();
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+            int call = calls.incrementAndGet();
+            if (call == 1) {
+                throw throttle();
+            }
+
+            List<WriteRequest> writes = request.requestItems().get("books");
+            List<WriteRequest> unprocessed = call == 2 ? writes.subList(writes.size() - 1, writes.size()) : List.of();
+            for (WriteRequest write : writes) {
+                if (!unprocessed.contains(write)) {
+                    Map<String, AttributeValue> item = write.putRequest().item();
+                    items.put(item.get("id").s(), item);
+                }
+            }
+            return BatchWriteItemResponse.builder()
+                    .unprocessedItems(unprocessed.isEmpty() ? Map.of() : Map.of("books", unprocessed))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package cl.rosta;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BorrowerBackfillJobTest {
+
+    @Test
+    void legacyLoansGetAKeyAndCountAsActive() {
+        ScriptedClient client = new ScriptedClient();
+        client.books.add(book("1", "Ana", null));
+        client.books.add(book("2", "Ana", null));
+        client.books.add(book("3", "Beto", "beto"));
+
+        Map<String, Object> summary = job(client).backfill();
+
+        assertEquals(3L, summary.get("books"));
+        assertEquals(2L, summary.get("borrowerKeysUpdated"));
+        assertEquals("ana", client.bookUpdate("1").expressionAttributeValues().get(":borrowerKey").s());
+        assertEquals("ana", client.bookUpdate("1").expressionAttributeValues().get(":borrowerName").s());
+        assertTrue(client.bookUpdate("1").conditionExpression().contains("attribute_not_exists(#borrowerKey)"));
+
+        UpdateItemRequest ana = client.rollupUpdate("ana");
+        assertEquals("2", ana.expressionAttributeValues().get(":count").n());
+        assertEquals(LoanHistory.partition(LoanHistory.DIMENSION_BORROWER, "ana"), ana.expressionAttributeValues().get(":partition").s());
+        assertEquals("Ana", ana.expressionAttributeValues().get(":label").s());
+        assertEquals("1", client.rollupUpdate("beto").expressionAttributeValues().get(":count").n());
+    }
+
+    @Test
+    void loansWithEmailGetTheNameForLookup() {
+        ScriptedClient client = new ScriptedClient();
+        Map<String, AttributeValue> book = book("1", "Ana Pérez", null);
+        book.put("email", string("ana@example.com"));
+        book.put(BorrowerKeys.ATTRIBUTE, string("ana@example.com"));
+        client.books.add(book);
+
+        Map<String, Object> summary = job(client).backfill();
+
+        assertEquals(1L, summary.get("borrowerKeysUpdated"));
+        UpdateItemRequest update = client.bookUpdate("1");
+        assertEquals("SET #borrowerKey = :borrowerKey, #borrowerName = :borrowerName", update.updateExpression());
+        assertEquals("ana perez", update.expressionAttributeValues().get(":borrowerName").s());
+        assertEquals("attribute_exists(#id) AND #borrowerKey = :borrowerKeyStored AND attribute_not_exists(#borrowerName)",
+                update.conditionExpression());
+    }
+
+    @Test
+    void staleRollupsAreCorrectedAndCorrectOnesLeftAlone() {
+        ScriptedClient client = new ScriptedClient();
+        client.books.add(book("1", "Ana", "ana"));
+        client.rollups.add(rollup("ana", 1, true));
+        client.rollups.add(rollup("carla", 2, true));
+
+        Map<String, Object> summary = job(client).backfill();
+
+        assertEquals(1L, summary.get("rollupsUpdated"));
+        assertEquals(null, client.rollupUpdate("ana"));
+        UpdateItemRequest carla = client.rollupUpdate("carla");
+        assertEquals("0", carla.expressionAttributeValues().get(":count").n());
+        assertTrue(carla.updateExpression().endsWith("REMOVE #activeFlag"));
+    }
+
+    @Test
+    void concurrentChangeCountsTheStoredKey() {
+        ScriptedClient client = new ScriptedClient();
+        client.books.add(book("1", "Ana", null));
+        client.conflictIds.add("1");
+        client.current.put("1", "beto");
+
+        Map<String, Object> summary = job(client).backfill();
+
+        assertEquals(1L, summary.get("conflicts"));
+        assertEquals(0L, summary.get("borrowerKeysUpdated"));
+        assertEquals("1", client.rollupUpdate("beto").expressionAttributeValues().get(":count").n());
+        assertFalse(client.updates.stream().anyMatch(request -> isRollup(request, "ana")));
+    }
+
+    @Test
+    void nonStringDueDatesAreReported() {
+        ScriptedClient client = new ScriptedClient();
+        Map<String, AttributeValue> numeric = book("1", "Ana", null);
+        numeric.put("retorno_fecha", AttributeValue.builder().n("20240515").build());
+        client.books.add(numeric);
+        Map<String, AttributeValue> dated = book("2", "Ana", "ana");
+        dated.put("retorno_fecha", string("2024-05-15"));
+        client.books.add(dated);
+
+        Map<String, Object> summary = job(client).backfill();
+
+        assertEquals(1L, summary.get("invalidDueDates"));
+        assertEquals(List.of("1"), summary.get("invalidDueDateIds"));
+        // La clave no depende de la fecha: el préstamo igual queda en el índice y en el contador
+        assertEquals("ana", client.bookUpdate("1").expressionAttributeValues().get(":borrowerKey").s());
+        assertEquals("2", client.rollupUpdate("ana").expressionAttributeValues().get(":count").n());
+    }
+
+    private static BorrowerBackfillJob job(ScriptedClient client) {
+        return new BorrowerBackfillJob(client, DynamoDbRetryPolicy.builder().build());
+    }
+
+    private static Map<String, AttributeValue> book(String id, String borrower, String borrowerKey) {
+        Map<String, AttributeValue> book = new HashMap<>();
+        book.put("id", string(id));
+        book.put("prestado_a", string(borrower));
+        if (borrowerKey != null) {
+            book.put(BorrowerKeys.ATTRIBUTE, string(borrowerKey));
+            book.put(BorrowerKeys.NAME_ATTRIBUTE, string(BorrowerKeys.nameOf(book)));
+        }
+        return book;
+    }
+
+    private static Map<String, AttributeValue> rollup(String key, int activeLoans, boolean flagged) {
+        Map<String, AttributeValue> rollup = new HashMap<>(LoanHistory.rollupKey(LoanHistory.DIMENSION_BORROWER, key));
+        rollup.put("active_loans", AttributeValue.builder().n(Integer.toString(activeLoans)).build());
+        if (flagged) {
+            rollup.put(LoanHistory.ACTIVE_ATTRIBUTE, rollup.get(LoanHistory.PARTITION_ATTRIBUTE));
+        }
+        return rollup;
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static boolean isRollup(UpdateItemRequest request, String key) {
+        return LoanHistory.ROLLUPS_TABLE.equals(request.tableName()) && key.equals(request.key().get("key").s());
+    }
+
+    // Devuelve una sola página de libros y de cada fragmento de agregados; los ids en conflictIds fallan la condición
+    private static class ScriptedClient extends StubDynamoDbClient {
+        private final List<Map<String, AttributeValue>> books = new ArrayList<>();
+        private final List<Map<String, AttributeValue>> rollups = new ArrayList<>();
+        private final List<String> conflictIds = new ArrayList<>();
+        private final Map<String, String> current = new HashMap<>();
+        private final List<UpdateItemRequest> updates = new ArrayList<>();
+
+        @Override
+        public ScanResponse scan(ScanRequest request) {
+            return ScanResponse.builder().items(books).build();
+        }
+
+        @Override
+        public QueryResponse query(QueryRequest request) {
+            AttributeValue partition = request.expressionAttributeValues().get(":partition");
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (Map<String, AttributeValue> rollup : rollups) {
+                if (partition.equals(rollup.get(LoanHistory.PARTITION_ATTRIBUTE))) {
+                    items.add(rollup);
+                }
+            }
+            return QueryResponse.builder().items(items).build();
+        }
+
+        @Override
+        public GetItemResponse getItem(GetItemRequest request) {
+            String id = request.key().get("id").s();
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("id", string(id));
+            if (current.containsKey(id)) {
+                item.put(BorrowerKeys.ATTRIBUTE, string(current.get(id)));
+            }
+            return GetItemResponse.builder().item(item).build();
+        }
+
+        @Override
+        public UpdateItemResponse updateItem(UpdateItemRequest request) {
+            if ("books".equals(request.tableName()) && conflictIds.contains(request.key().get("id").s())) {
+                throw ConditionalCheckFailedException.builder().message("Changed").build();
+            }
+            updates.add(request);
+            return UpdateItemResponse.builder().build();
+        }
+
+        UpdateItemRequest bookUpdate(String id) {
+            return updates.stream()
+                    .filter(request -> "books".equals(request.tableName()) && id.equals(request.key().get("id").s()))
+                    .findFirst().orElse(null);
+        }
+
+        UpdateItemRequest rollupUpdate(String key) {
+            return updates.stream().filter(request -> isRollup(request, key)).findFirst().orElse(null);
+        }
+    }
+}
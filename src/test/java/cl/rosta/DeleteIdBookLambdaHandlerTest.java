@@ -0,0 +1,155 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.Delete;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeleteIdBookLambdaHandlerTest {
+
+    @Test
+    void deleteIsConditionedOnTheValuesRead() {
+        Map<String, AttributeValue> book = Map.of(
+                "id", string("1"),
+                "title", string("Rayuela"),
+                "prestado_a", string("Ana"),
+                BorrowerKeys.ATTRIBUTE, string("ana"));
+
+        Delete delete = LoanHistory.buildReturnTransaction("1", book, LocalDate.of(2024, 5, 1)).get(0).delete();
+
+        String condition = delete.conditionExpression();
+        assertTrue(condition.startsWith("attribute_exists(#id)"));
+        for (Map.Entry<String, String> name : delete.expressionAttributeNames().entrySet()) {
+            String attribute = name.getValue();
+            if (book.containsKey(attribute) && !"id".equals(attribute)) {
+                String placeholder = ":" + name.getKey().substring(1);
+                assertTrue(condition.contains(name.getKey() + " = " + placeholder), condition);
+                assertEquals(book.get(attribute), delete.expressionAttributeValues().get(placeholder));
+            }
+        }
+        // Los atributos ausentes deben seguir ausentes (o no ser texto)
+        assertTrue(condition.contains("attribute_not_exists("));
+    }
+
+    @Test
+    void concurrentUpdateIsReReadBeforeRecordingHistory() {
+        ScriptedClient client = new ScriptedClient(1);
+        client.reads.add(loan("Ana"));
+        client.reads.add(loan("Beto"));
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(delete("1"), new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        assertTrue(response.getBody().contains("Beto"));
+        assertEquals(2, client.transactions.size());
+
+        // La transacción que se aplicó registra los valores de la segunda lectura
+        Put history = client.transactions.get(1).transactItems().get(1).put();
+        assertEquals("Beto", history.item().get("prestado_a").s());
+    }
+
+    @Test
+    void repeatedConflictsReturn409() {
+        ScriptedClient client = new ScriptedClient(Integer.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            client.reads.add(loan("Ana"));
+        }
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(delete("1"), new LoadTestContext(false));
+
+        assertEquals(409, response.getStatusCode());
+        assertEquals(3, client.transactions.size());
+    }
+
+    @Test
+    void bookDeletedConcurrentlyReturns404() {
+        ScriptedClient client = new ScriptedClient(1);
+        client.reads.add(loan("Ana"));
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(delete("1"), new LoadTestContext(false));
+
+        assertEquals(404, response.getStatusCode());
+    }
+
+    private static DeleteIdBookLambdaHandler handler(ScriptedClient client) {
+        return new DeleteIdBookLambdaHandler(client, DynamoDbRetryPolicy.builder().build(), new InMemoryMetricsSink());
+    }
+
+    private static APIGatewayProxyRequestEvent delete(String id) {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        event.setPathParameters(Map.of("id", id));
+        return event;
+    }
+
+    private static Map<String, AttributeValue> loan(String borrower) {
+        return Map.of(
+                "id", string("1"),
+                "title", string("Rayuela"),
+                "prestado_a", string(borrower),
+                BorrowerKeys.ATTRIBUTE, string(borrower.toLowerCase()));
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    // Devuelve las lecturas en orden (vacío al terminarse) y cancela las primeras transacciones
+    // como si otra solicitud hubiera modificado el libro
+    private static class ScriptedClient extends StubDynamoDbClient {
+        private final List<Map<String, AttributeValue>> reads = new ArrayList<>();
+        private final List<TransactWriteItemsRequest> transactions = new ArrayList<>();
+        private final int conflicts;
+
+        ScriptedClient(int conflicts) {
+            this.conflicts = conflicts;
+        }
+
+        @Override
+        public GetItemResponse getItem(GetItemRequest request) {
+            return reads.isEmpty() ? GetItemResponse.builder().build() : GetItemResponse.builder().item(reads.remove(0)).build();
+        }
+
+        @Override
+        public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest request) {
+            transactions.add(request);
+            if (transactions.size() <= conflicts) {
+                throw TransactionCanceledException.builder()
+                        .message("Transaction cancelled")
+                        .cancellationReasons(CancellationReason.builder().code("ConditionalCheckFailed").build(),
+                                CancellationReason.builder().code("None").build())
+                        .build();
+            }
+            return TransactWriteItemsResponse.builder().build();
+        }
+
+        @Override
+        public QueryResponse query(QueryRequest request) {
+            return QueryResponse.builder().build();
+        }
+
+        @Override
+        public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+            return BatchWriteItemResponse.builder().build();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package cl.rosta;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DynamoDbRetryPolicyTest {
+
+    private static final GetItemRequest REQUEST = GetItemRequest.builder().tableName("books").build();
+
+    private final DynamoDbClient delegate = new StubDynamoDbClient() {
+        @Override
+        public GetItemResponse getItem(GetItemRequest request) {
+            return GetItemResponse.builder().build();
+        }
+    };
+
+    @Test
+    void succeedsWithoutRetryingWhenNotThrottled() {
+        FaultInjectingDynamoDbClient client = new FaultInjectingDynamoDbClient(delegate, 0);
+        DynamoDbRetryPolicy policy = DynamoDbRetryPolicy.builder().build();
+
+        policy.execute(() -> client.getItem(REQUEST));
+
+        assertEquals(1, client.getCalls());
+        assertFalse(policy.getRateLimiter().isEnabled());
+    }
+
+    @Test
+    void backsOffWithinExponentialCeilingsUntilAttemptsRunOut() {
+        FaultInjectingDynamoDbClient client = new FaultInjectingDynamoDbClient(delegate, 1);
+        DynamoDbRetryPolicy policy = DynamoDbRetryPolicy.builder()
+                .maxAttempts(4)
+                .baseDelayMillis(10)
+                .maxDelayMillis(25)
+                .minRate(1000)
+                .build();
+        List<Long> backoffs = new ArrayList<>();
+        List<Integer> attempts = new ArrayList<>();
+
+        ThrottledException error = assertThrows(ThrottledException.class,
+                () -> policy.execute(() -> client.getItem(REQUEST), new DynamoDbAttemptListener() {
+                    @Override
+                    public void onAttempt(int attempt, long nanos) {
+                        attempts.add(attempt);
+                    }
+
+                    @Override
+                    public void onWait(long millis) {
+                        // La primera espera tras cada intento es el backoff; la siguiente, si la hay,
+                        // es del limitador de tasa antes del próximo intento
+                        if (backoffs.size() < attempts.size()) {
+                            backoffs.add(millis);
+                        }
+                    }
+                }));
+
+        assertEquals(4, client.getCalls());
+        assertEquals(List.of(1, 2, 3, 4), attempts);
+        assertEquals(3, backoffs.size());
+        // Full jitter: cada espera está entre 0 y min(maxDelay, base * 2^(intento - 1))
+        assertTrue(backoffs.get(0) <= 10);
+        assertTrue(backoffs.get(1) <= 20);
+        assertTrue(backoffs.get(2) <= 25);
+        assertTrue(error.getRetryAfterSeconds() >= 1);
+    }
+
+    @Test
+    void retryQuotaStopsRetriesWhenExhausted() {
+        FaultInjectingDynamoDbClient client = new FaultInjectingDynamoDbClient(delegate, 1);
+        DynamoDbRetryPolicy policy = DynamoDbRetryPolicy.builder()
+                .maxAttempts(10)
+                .baseDelayMillis(1)
+                .maxDelayMillis(1)
+                .retryQuotaCapacity(10)
+                .throttleRetryCost(5)
+                .minRate(1000)
+                .build();
+
+        // La cuota alcanza para dos reintentos: el tercer throttle agota la llamada
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertEquals(3, client.getCalls());
+
+        // Sin cuota la siguiente llamada no reintenta
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertEquals(4, client.getCalls());
+
+        // Los éxitos devuelven tokens y los reintentos vuelven a estar disponibles
+        client.setThrottleRate(0);
+        for (int i = 0; i < 5; i++) {
+            policy.execute(() -> client.getItem(REQUEST));
+        }
+        client.setThrottleRate(1);
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertEquals(9 + 2, client.getCalls());
+    }
+
+    @Test
+    void nonRetryableErrorsAreNotRetried() {
+        DynamoDbClient failing = new StubDynamoDbClient() {
+            @Override
+            public GetItemResponse getItem(GetItemRequest request) {
+                throw ConditionalCheckFailedException.builder().message("Condition failed").build();
+            }
+        };
+        FaultInjectingDynamoDbClient client = new FaultInjectingDynamoDbClient(failing, 0);
+        DynamoDbRetryPolicy policy = DynamoDbRetryPolicy.builder().build();
+
+        assertThrows(ConditionalCheckFailedException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertEquals(1, client.getCalls());
+    }
+
+    @Test
+    void rateLimiterDecreasesMultiplicativelyAndRecoversLinearly() throws Exception {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(1, 1000, 2);
+
+        // Una ventana de un segundo con ~100 envíos: el primer throttle parte de la tasa medida
+        limiter.reserve(100, 0);
+        Thread.sleep(1000);
+        limiter.reserve(1, 0);
+        limiter.onThrottle();
+        double afterThrottle = limiter.getFillRate();
+        assertTrue(afterThrottle > 50 && afterThrottle <= 70.7, "fill rate " + afterThrottle);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(afterThrottle + 10, limiter.getFillRate(), 0.001);
+
+        limiter.onThrottle();
+        assertEquals((afterThrottle + 10) * 0.7, limiter.getFillRate(), 0.001);
+
+        // Nunca baja de la tasa mínima
+        for (int i = 0; i < 50; i++) {
+            limiter.onThrottle();
+        }
+        assertEquals(1, limiter.getFillRate(), 0.001);
+    }
+
+    @Test
+    void throttleEnablesClientSideRateLimiting() {
+        FaultInjectingDynamoDbClient client = new FaultInjectingDynamoDbClient(delegate, 1);
+        DynamoDbRetryPolicy policy = DynamoDbRetryPolicy.builder()
+                .maxAttempts(1)
+                .minRate(100)
+                .maxRate(200)
+                .build();
+
+        assertFalse(policy.getRateLimiter().isEnabled());
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+
+        // Sin una ventana de medición completa se reduce desde la tasa máxima
+        assertTrue(policy.getRateLimiter().isEnabled());
+        assertEquals(140, policy.getRateLimiter().getFillRate(), 0.001);
+    }
+
+    @Test
+    void throttleBeforeTheFirstWindowDecreasesFromTheConfiguredRate() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(1, 1000, 25);
+        limiter.enable(1000);
+
+        limiter.reserve(25, Long.MAX_VALUE);
+        limiter.onThrottle();
+
+        // Sin medición no cae a la tasa mínima: 25 permisos siguen esperando milisegundos, no segundos
+        assertEquals(700, limiter.getFillRate(), 0.001);
+        assertTrue(limiter.reserve(25, Long.MAX_VALUE) < 100);
+    }
+
+    @Test
+    void firstThrottleAfterAnIdleSecondDecreasesFromTheConfiguredRate() throws InterruptedException {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(1, 1000, 25);
+
+        // La primera llamada llega pasado un segundo (arranque en frío): la ventana vacía no mide 0/s
+        Thread.sleep(1100);
+        limiter.onThrottle();
+
+        assertEquals(700, limiter.getFillRate(), 0.001);
+    }
+
+    @Test
+    void circuitOpensAfterConsecutiveExhaustionsAndFailsFast() {
+        FaultInjectingDynamoDbClient client = new FaultInjectingDynamoDbClient(delegate, 1);
+        DynamoDbRetryPolicy policy = circuitPolicy(60_000);
+
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertTrue(policy.isCircuitOpen());
+        long calls = client.getCalls();
+
+        ThrottledException error = assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertEquals(calls, client.getCalls());
+        assertTrue(error.getRetryAfterSeconds() > 1);
+    }
+
+    @Test
+    void halfOpenAllowsASingleProbe() throws Exception {
+        CountDownLatch probeStarted = new CountDownLatch(1);
+        CountDownLatch releaseProbe = new CountDownLatch(1);
+        DynamoDbClient slow = new StubDynamoDbClient() {
+            @Override
+            public GetItemResponse getItem(GetItemRequest request) {
+                probeStarted.countDown();
+                try {
+                    releaseProbe.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return GetItemResponse.builder().build();
+            }
+        };
+        FaultInjectingDynamoDbClient client = new FaultInjectingDynamoDbClient(slow, 1);
+        DynamoDbRetryPolicy policy = circuitPolicy(50);
+
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        Thread.sleep(80);
+        client.setThrottleRate(0);
+
+        CompletableFuture<GetItemResponse> probe = CompletableFuture.supplyAsync(() -> policy.execute(() -> client.getItem(REQUEST)));
+        assertTrue(probeStarted.await(5, TimeUnit.SECONDS));
+
+        // Mientras la prueba está en curso, las demás llamadas fallan rápido sin llegar a DynamoDB
+        long calls = client.getCalls();
+        for (int i = 0; i < 10; i++) {
+            assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        }
+        assertEquals(calls, client.getCalls());
+
+        releaseProbe.countDown();
+        probe.get(5, TimeUnit.SECONDS);
+
+        // La prueba tuvo éxito: el circuito se cierra
+        assertFalse(policy.isCircuitOpen());
+        policy.execute(() -> client.getItem(REQUEST));
+        assertEquals(calls + 1, client.getCalls());
+    }
+
+    @Test
+    void failedProbeReopensTheCircuit() throws Exception {
+        FaultInjectingDynamoDbClient client = new FaultInjectingDynamoDbClient(delegate, 1);
+        DynamoDbRetryPolicy policy = circuitPolicy(50);
+
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        Thread.sleep(80);
+
+        // La prueba también se agota y el circuito vuelve a abrirse
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertTrue(policy.isCircuitOpen());
+        long calls = client.getCalls();
+        assertThrows(ThrottledException.class, () -> policy.execute(() -> client.getItem(REQUEST)));
+        assertEquals(calls, client.getCalls());
+    }
+
+    private static DynamoDbRetryPolicy circuitPolicy(long openMillis) {
+        return DynamoDbRetryPolicy.builder()
+                .maxAttempts(2)
+                .baseDelayMillis(1)
+                .maxDelayMillis(1)
+                .minRate(1000)
+                .circuitFailureThreshold(2)
+                .circuitOpenMillis(openMillis)
+                .build();
+    }
+}
@@ -0,0 +1,109 @@
+package cl.rosta;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cliente local que envuelve a otro cliente y rechaza una fracción de las llamadas con
+// ProvisionedThroughputExceededException, para probar la política de reintentos bajo throttling sintético
+public class FaultInjectingDynamoDbClient implements DynamoDbClient {
+
+    private final DynamoDbClient delegate;
+    private volatile double throttleRate;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong injectedThrottles = new AtomicLong();
+
+    public FaultInjectingDynamoDbClient(DynamoDbClient delegate, double throttleRate) {
+        this.delegate = delegate;
+        this.throttleRate = throttleRate;
+    }
+
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getInjectedThrottles() {
+        return injectedThrottles.get();
+    }
+
+    @Override
+    public GetItemResponse getItem(GetItemRequest request) {
+        maybeThrottle();
+        return delegate.getItem(request);
+    }
+
+    @Override
+    public PutItemResponse putItem(PutItemRequest request) {
+        maybeThrottle();
+        return delegate.putItem(request);
+    }
+
+    @Override
+    public UpdateItemResponse updateItem(UpdateItemRequest request) {
+        maybeThrottle();
+        return delegate.updateItem(request);
+    }
+
+    @Override
+    public DeleteItemResponse deleteItem(DeleteItemRequest request) {
+        maybeThrottle();
+        return delegate.deleteItem(request);
+    }
+
+    @Override
+    public ScanResponse scan(ScanRequest request) {
+        maybeThrottle();
+        return delegate.scan(request);
+    }
+
+    @Override
+    public QueryResponse query(QueryRequest request) {
+        maybeThrottle();
+        return delegate.query(request);
+    }
+
+    @Override
+    public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+        maybeThrottle();
+        return delegate.batchWriteItem(request);
+    }
+
+    @Override
+    public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest request) {
+        maybeThrottle();
+        return delegate.transactWriteItems(request);
+    }
+
+    @Override
+    public String serviceName() {
+        return delegate.serviceName();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private void maybeThrottle() {
+        calls.incrementAndGet();
+        if (ThreadLocalRandom.current().nextDouble() < throttleRate) {
+            injectedThrottles.incrementAndGet();
+            throw ProvisionedThroughputExceededException.builder()
+                    .message("Injected throttle")
+                    .statusCode(400)
+                    .awsErrorDetails(AwsErrorDetails.builder()
+                            .errorCode("ProvisionedThroughputExceededException")
+                            .errorMessage("Injected throttle")
+                            .serviceName("DynamoDb")
+                            .build())
+                    .build();
+        }
+    }
+}
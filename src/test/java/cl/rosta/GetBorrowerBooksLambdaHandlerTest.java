@@ -0,0 +1,194 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GetBorrowerBooksLambdaHandlerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void pagesFollowTheIndexKeyAndIncludeBooksWithoutDueDate() throws Exception {
+        IndexClient client = new IndexClient();
+        client.add("1", "Ana", null, "2024-05-15");
+        client.add("2", "Ana", null, null);
+        client.add("3", "Ana", null, "2024-05-01");
+        client.add("4", "Beto", null, "2024-05-01");
+
+        Map<?, ?> first = body(handler(client).handleRequest(request("Ana", Map.of("limit", "2")), new LoadTestContext(false)));
+        assertEquals(List.of("1", "2"), ids(first));
+
+        // El token es la clave del índice en JSON: id y borrower_name
+        String next = (String) first.get("next");
+        Map<?, ?> token = objectMapper.readValue(new String(Base64.getUrlDecoder().decode(next), StandardCharsets.UTF_8), Map.class);
+        assertEquals(Map.of("id", "2", BorrowerKeys.NAME_ATTRIBUTE, "ana"), token);
+
+        Map<?, ?> second = body(handler(client).handleRequest(request("ana", Map.of("limit", "2", "next", next)), new LoadTestContext(false)));
+        assertEquals(List.of("3"), ids(second));
+        assertNull(second.get("next"));
+    }
+
+    @Test
+    void dueBeforeFiltersWithoutShorteningThePage() throws Exception {
+        IndexClient client = new IndexClient();
+        client.add("1", "Ana", null, "2024-06-30");
+        client.add("2", "Ana", null, null);
+        client.add("3", "Ana", null, "2024-05-01");
+        client.add("4", "Ana", null, "2024-05-10");
+        client.add("5", "Ana", null, "2024-05-20");
+
+        Map<?, ?> body = body(handler(client).handleRequest(request("ana", Map.of("limit", "2", "due_before", "2024-05-15")),
+                new LoadTestContext(false)));
+
+        // Los libros 1 y 2 se leen y se descartan; la página se completa con otra Query
+        assertEquals(List.of("3", "4"), ids(body));
+        assertTrue(client.filters.stream().allMatch("#dueDate <= :dueBefore"::equals));
+        assertEquals(List.of(2, 2), client.limits);
+    }
+
+    @Test
+    void invalidDueBeforeOrForeignTokenIsABadRequest() throws Exception {
+        IndexClient client = new IndexClient();
+        client.add("1", "Ana", null, "2024-05-15");
+        client.add("2", "Ana", null, "2024-05-15");
+        String next = (String) body(handler(client).handleRequest(request("ana", Map.of("limit", "1")), new LoadTestContext(false))).get("next");
+
+        assertEquals(400, handler(client).handleRequest(request("ana", Map.of("due_before", "mañana")), new LoadTestContext(false)).getStatusCode());
+        assertEquals(400, handler(client).handleRequest(request("beto", Map.of("next", next)), new LoadTestContext(false)).getStatusCode());
+    }
+
+    @Test
+    void borrowerWithEmailIsFoundByEmailAndByName() throws Exception {
+        IndexClient client = new IndexClient();
+        client.add("1", "Ana Pérez", "Ana@Example.com", "2024-05-15");
+        client.add("2", "Ana Pérez", "otra.ana@example.com", null);
+        client.add("3", "Beto", "ana@example.com", null);
+
+        Map<?, ?> byEmail = body(handler(client).handleRequest(request("ana@example.com", Map.of()), new LoadTestContext(false)));
+        assertEquals("ana@example.com", byEmail.get(BorrowerKeys.ATTRIBUTE));
+        assertEquals(List.of("1", "3"), ids(byEmail));
+
+        // Por nombre aparecen los libros de todos los prestatarios con ese nombre, tengan o no email
+        Map<?, ?> byName = body(handler(client).handleRequest(request("ana perez", Map.of()), new LoadTestContext(false)));
+        assertEquals("ana perez", byName.get(BorrowerKeys.NAME_ATTRIBUTE));
+        assertEquals(List.of("1", "2"), ids(byName));
+        assertEquals(List.of(BorrowerKeys.INDEX_NAME, BorrowerKeys.NAME_INDEX_NAME), client.indexes);
+    }
+
+    @Test
+    void unknownBorrowerHasNoBooks() throws Exception {
+        IndexClient client = new IndexClient();
+        client.add("1", "Ana", null, "2024-05-15");
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(request("Carla", Map.of()), new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        Map<?, ?> body = body(response);
+        assertEquals("carla", body.get(BorrowerKeys.NAME_ATTRIBUTE));
+        assertEquals(List.of(), body.get("items"));
+        assertNull(body.get("next"));
+    }
+
+    private static GetBorrowerBooksLambdaHandler handler(IndexClient client) {
+        return new GetBorrowerBooksLambdaHandler(client, DynamoDbRetryPolicy.builder().build(), new InMemoryMetricsSink());
+    }
+
+    private static APIGatewayProxyRequestEvent request(String key, Map<String, String> parameters) {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        event.setPathParameters(Map.of("key", key));
+        event.setQueryStringParameters(parameters);
+        return event;
+    }
+
+    private Map<?, ?> body(APIGatewayProxyResponseEvent response) throws Exception {
+        assertEquals(200, response.getStatusCode());
+        return objectMapper.readValue(response.getBody(), Map.class);
+    }
+
+    private static List<Object> ids(Map<?, ?> body) {
+        List<Object> ids = new ArrayList<>();
+        for (Object item : (List<?>) body.get("items")) {
+            ids.add(((Map<?, ?>) item).get("id"));
+        }
+        return ids;
+    }
+
+    // Responde Query sobre borrower_key-index y borrower_name-index como DynamoDB: en orden de id,
+    // desde ExclusiveStartKey, con Limit contado antes del filtro por retorno_fecha
+    private static class IndexClient extends StubDynamoDbClient {
+        private final List<Map<String, AttributeValue>> books = new ArrayList<>();
+        private final List<String> filters = new ArrayList<>();
+        private final List<Integer> limits = new ArrayList<>();
+        private final List<String> indexes = new ArrayList<>();
+
+        void add(String id, String borrower, String email, String dueDate) {
+            Map<String, AttributeValue> book = new HashMap<>();
+            book.put("id", AttributeValue.builder().s(id).build());
+            book.put("prestado_a", AttributeValue.builder().s(borrower).build());
+            if (email != null) {
+                book.put("email", AttributeValue.builder().s(email).build());
+            }
+            book.put(BorrowerKeys.ATTRIBUTE, AttributeValue.builder().s(BorrowerKeys.of(book)).build());
+            book.put(BorrowerKeys.NAME_ATTRIBUTE, AttributeValue.builder().s(BorrowerKeys.nameOf(book)).build());
+            if (dueDate != null) {
+                book.put("retorno_fecha", AttributeValue.builder().s(dueDate).build());
+            }
+            books.add(book);
+        }
+
+        @Override
+        public QueryResponse query(QueryRequest request) {
+            indexes.add(request.indexName());
+            limits.add(request.limit());
+            if (request.filterExpression() != null) {
+                filters.add(request.filterExpression());
+            }
+
+            String attribute = BorrowerKeys.INDEX_NAME.equals(request.indexName()) ? BorrowerKeys.ATTRIBUTE : BorrowerKeys.NAME_ATTRIBUTE;
+            assertEquals(attribute, request.expressionAttributeNames().get("#borrower"));
+            String borrower = request.expressionAttributeValues().get(":borrower").s();
+            String after = request.hasExclusiveStartKey() ? request.exclusiveStartKey().get("id").s() : "";
+            List<Map<String, AttributeValue>> matches = new ArrayList<>();
+            for (Map<String, AttributeValue> book : books) {
+                if (borrower.equals(book.get(attribute).s()) && book.get("id").s().compareTo(after) > 0) {
+                    matches.add(book);
+                }
+            }
+            matches.sort(Comparator.comparing((Map<String, AttributeValue> book) -> book.get("id").s()));
+
+            List<Map<String, AttributeValue>> evaluated = matches.subList(0, Math.min(matches.size(), request.limit()));
+            AttributeValue dueBefore = request.expressionAttributeValues().get(":dueBefore");
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (Map<String, AttributeValue> book : evaluated) {
+                AttributeValue dueDate = book.get("retorno_fecha");
+                if (dueBefore == null || (dueDate != null && dueDate.s().compareTo(dueBefore.s()) <= 0)) {
+                    items.add(book);
+                }
+            }
+
+            QueryResponse.Builder response = QueryResponse.builder().items(items).count(items.size());
+            if (evaluated.size() < matches.size()) {
+                Map<String, AttributeValue> last = evaluated.get(evaluated.size() - 1);
+                response.lastEvaluatedKey(Map.of("id", last.get("id"), attribute, last.get(attribute)));
+            }
+            return response.build();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GetLoanReportLambdaHandlerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void reportIsReadFromTheShardOfItsKey() throws Exception {
+        RollupClient client = new RollupClient();
+        client.addRollup(LoanHistory.DIMENSION_AUTHOR, "julio cortazar", 2);
+        client.addRollup(LoanHistory.DIMENSION_MONTH, "2024-05", 5);
+
+        // Autor normalizado (minúsculas, sin tildes, espacios simples); el mes se usa tal cual
+        APIGatewayProxyResponseEvent author = handler(client).handleRequest(
+                request(LoanHistory.DIMENSION_AUTHOR, " Julio  Cortázar"), new LoadTestContext(false));
+        APIGatewayProxyResponseEvent month = handler(client).handleRequest(
+                request(LoanHistory.DIMENSION_MONTH, "2024-05"), new LoadTestContext(false));
+
+        assertEquals(LoanHistory.partition(LoanHistory.DIMENSION_AUTHOR, "julio cortazar"),
+                client.reads.get(0).key().get(LoanHistory.PARTITION_ATTRIBUTE).s());
+        Map<?, ?> report = objectMapper.readValue(author.getBody(), Map.class);
+        assertEquals(LoanHistory.DIMENSION_AUTHOR, report.get("dimension"));
+        assertEquals("julio cortazar", report.get("key"));
+        assertEquals(2, report.get("loans"));
+        assertEquals(5, objectMapper.readValue(month.getBody(), Map.class).get("loans"));
+    }
+
+    @Test
+    void missingReportIsNotFoundAndUnknownDimensionIsABadRequest() {
+        RollupClient client = new RollupClient();
+
+        assertEquals(404, handler(client).handleRequest(
+                request(LoanHistory.DIMENSION_MONTH, "2024-05"), new LoadTestContext(false)).getStatusCode());
+        assertEquals(400, handler(client).handleRequest(
+                request("title", "rayuela"), new LoadTestContext(false)).getStatusCode());
+    }
+
+    @Test
+    void listingMergesTheShardsInKeyOrder() throws Exception {
+        RollupClient client = new RollupClient();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keys.add(String.format("autor %02d", i));
+            client.addRollup(LoanHistory.DIMENSION_AUTHOR, keys.get(i), i);
+        }
+        client.addRollup(LoanHistory.DIMENSION_MONTH, "2024-05", 1);
+        assertTrue(keys.stream().map(key -> LoanHistory.partition(LoanHistory.DIMENSION_AUTHOR, key)).distinct().count() > 1);
+
+        List<Object> listed = new ArrayList<>();
+        String next = null;
+        do {
+            Map<String, String> parameters = new HashMap<>();
+            parameters.put("limit", "7");
+            if (next != null) {
+                parameters.put("next", next);
+            }
+            APIGatewayProxyRequestEvent event = request(LoanHistory.DIMENSION_AUTHOR, null);
+            event.setQueryStringParameters(parameters);
+            Map<?, ?> body = objectMapper.readValue(handler(client).handleRequest(event, new LoadTestContext(false)).getBody(), Map.class);
+
+            List<?> items = (List<?>) body.get("items");
+            assertTrue(items.size() <= 7);
+            for (Object item : items) {
+                listed.add(((Map<?, ?>) item).get("key"));
+            }
+            next = (String) body.get("next");
+        } while (next != null);
+
+        assertEquals(keys, listed);
+        assertTrue(client.queries.stream().allMatch(query -> query.startsWith(LoanHistory.DIMENSION_AUTHOR + "#")));
+    }
+
+    @Test
+    void emptyDimensionListsNothing() throws Exception {
+        RollupClient client = new RollupClient();
+        client.addRollup(LoanHistory.DIMENSION_AUTHOR, "julio cortazar", 2);
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(
+                request(LoanHistory.DIMENSION_MONTH, null), new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        Map<?, ?> body = objectMapper.readValue(response.getBody(), Map.class);
+        assertEquals(List.of(), body.get("items"));
+        assertFalse(body.containsKey("next"));
+        assertEquals(LoanHistory.ROLLUP_SHARDS, client.queries.size());
+    }
+
+    @Test
+    void borrowerNameResolvesToTheEmailKey() throws Exception {
+        RollupClient client = new RollupClient();
+        client.addLoan("Ana Pérez", "ana@example.com");
+        client.addLoan("Ana Pérez", "ana@example.com");
+        client.addRollup(LoanHistory.DIMENSION_BORROWER, "ana@example.com", 3);
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(
+                request(LoanHistory.DIMENSION_BORROWER, "Ana  Perez"), new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("ana@example.com", objectMapper.readValue(response.getBody(), Map.class).get("key"));
+        assertEquals("ana perez", client.nameQueries.get(0));
+    }
+
+    @Test
+    void borrowerNameWithoutActiveLoansIsUsedAsTheKey() throws Exception {
+        RollupClient client = new RollupClient();
+        client.addRollup(LoanHistory.DIMENSION_BORROWER, "beto", 1);
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(
+                request(LoanHistory.DIMENSION_BORROWER, "Beto"), new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("beto", objectMapper.readValue(response.getBody(), Map.class).get("key"));
+    }
+
+    @Test
+    void sharedBorrowerNameIsAConflict() {
+        RollupClient client = new RollupClient();
+        client.addLoan("Ana", "ana@example.com");
+        client.addLoan("Ana", "otra.ana@example.com");
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(
+                request(LoanHistory.DIMENSION_BORROWER, "ana"), new LoadTestContext(false));
+
+        assertEquals(409, response.getStatusCode());
+        assertTrue(client.reads.isEmpty());
+    }
+
+    @Test
+    void emailAndOtherDimensionsAreReadDirectly() {
+        RollupClient client = new RollupClient();
+        client.addRollup(LoanHistory.DIMENSION_BORROWER, "ana@example.com", 1);
+        client.addRollup(LoanHistory.DIMENSION_AUTHOR, "julio cortazar", 2);
+
+        assertEquals(200, handler(client).handleRequest(
+                request(LoanHistory.DIMENSION_BORROWER, "Ana@Example.com"), new LoadTestContext(false)).getStatusCode());
+        assertEquals(200, handler(client).handleRequest(
+                request(LoanHistory.DIMENSION_AUTHOR, "Julio Cortázar"), new LoadTestContext(false)).getStatusCode());
+        assertEquals(List.of(), client.nameQueries);
+    }
+
+    private static GetLoanReportLambdaHandler handler(RollupClient client) {
+        return new GetLoanReportLambdaHandler(client, DynamoDbRetryPolicy.builder().build(), new InMemoryMetricsSink());
+    }
+
+    private static APIGatewayProxyRequestEvent request(String dimension, String key) {
+        Map<String, String> pathParameters = new HashMap<>();
+        pathParameters.put("dimension", dimension);
+        if (key != null) {
+            pathParameters.put("key", key);
+        }
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        event.setPathParameters(pathParameters);
+        return event;
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    // Guarda los agregados por clave y los préstamos activos para borrower_name-index; las Query sobre la
+    // tabla devuelven un fragmento en orden de clave, después de :next y con Limit
+    private static class RollupClient extends StubDynamoDbClient {
+        private final Map<Map<String, AttributeValue>, Map<String, AttributeValue>> rollups = new HashMap<>();
+        private final List<Map<String, AttributeValue>> loans = new ArrayList<>();
+        private final List<String> nameQueries = new ArrayList<>();
+        private final List<String> queries = new ArrayList<>();
+        private final List<GetItemRequest> reads = new ArrayList<>();
+
+        void addLoan(String borrower, String email) {
+            Map<String, AttributeValue> book = new HashMap<>();
+            book.put("prestado_a", string(borrower));
+            book.put("email", string(email));
+            book.put(BorrowerKeys.ATTRIBUTE, string(BorrowerKeys.of(book)));
+            book.put(BorrowerKeys.NAME_ATTRIBUTE, string(BorrowerKeys.nameOf(book)));
+            loans.add(book);
+        }
+
+        void addRollup(String dimension, String key, int loans) {
+            Map<String, AttributeValue> rollup = new HashMap<>(LoanHistory.rollupKey(dimension, key));
+            rollup.put("loans", AttributeValue.builder().n(Integer.toString(loans)).build());
+            rollups.put(LoanHistory.rollupKey(dimension, key), rollup);
+        }
+
+        @Override
+        public QueryResponse query(QueryRequest request) {
+            if (request.indexName() == null) {
+                return queryShard(request);
+            }
+            assertEquals(BorrowerKeys.NAME_INDEX_NAME, request.indexName());
+            String name = request.expressionAttributeValues().get(":borrowerName").s();
+            nameQueries.add(name);
+
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (Map<String, AttributeValue> loan : loans) {
+                if (name.equals(loan.get(BorrowerKeys.NAME_ATTRIBUTE).s())) {
+                    items.add(Map.of(BorrowerKeys.ATTRIBUTE, loan.get(BorrowerKeys.ATTRIBUTE)));
+                }
+            }
+            return QueryResponse.builder().items(items).count(items.size()).build();
+        }
+
+        private QueryResponse queryShard(QueryRequest request) {
+            AttributeValue partition = request.expressionAttributeValues().get(":partition");
+            AttributeValue next = request.expressionAttributeValues().get(":next");
+            queries.add(partition.s());
+
+            List<Map<String, AttributeValue>> matches = new ArrayList<>();
+            for (Map<String, AttributeValue> rollup : rollups.values()) {
+                if (partition.equals(rollup.get(LoanHistory.PARTITION_ATTRIBUTE))
+                        && (next == null || rollup.get("key").s().compareTo(next.s()) > 0)) {
+                    matches.add(rollup);
+                }
+            }
+            matches.sort(Comparator.comparing((Map<String, AttributeValue> rollup) -> rollup.get("key").s()));
+
+            List<Map<String, AttributeValue>> items = matches.subList(0, Math.min(matches.size(), request.limit()));
+            QueryResponse.Builder response = QueryResponse.builder().items(items).count(items.size());
+            if (items.size() < matches.size()) {
+                Map<String, AttributeValue> last = items.get(items.size() - 1);
+                response.lastEvaluatedKey(Map.of(
+                        LoanHistory.PARTITION_ATTRIBUTE, partition, "key", last.get("key")));
+            }
+            return response.build();
+        }
+
+        @Override
+        public GetItemResponse getItem(GetItemRequest request) {
+            reads.add(request);
+            Map<String, AttributeValue> rollup = rollups.get(request.key());
+            return GetItemResponse.builder().item(rollup != null ? rollup : Map.of()).build();
+        }
+    }
+}
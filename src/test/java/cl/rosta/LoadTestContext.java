@@ -0,0 +1,96 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Context mínimo para invocar los handlers dentro del proceso de la prueba de carga.
+// Los logs de los handlers se cuentan y solo se imprimen en modo verbose
+public class LoadTestContext implements Context {
+
+    private final boolean verbose;
+    private final AtomicLong loggedLines = new AtomicLong();
+
+    private final LambdaLogger logger = new LambdaLogger() {
+        @Override
+        public void log(String message) {
+            loggedLines.incrementAndGet();
+            if (verbose) {
+                System.err.println(message);
+            }
+        }
+
+        @Override
+        public void log(byte[] message) {
+            log(new String(message, StandardCharsets.UTF_8));
+        }
+    };
+
+    public LoadTestContext(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public long getLoggedLines() {
+        return loggedLines.get();
+    }
+
+    @Override
+    public String getAwsRequestId() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Override
+    public String getLogGroupName() {
+        return "/loadtest/books";
+    }
+
+    @Override
+    public String getLogStreamName() {
+        return "loadtest";
+    }
+
+    @Override
+    public String getFunctionName() {
+        return "loadtest";
+    }
+
+    @Override
+    public String getFunctionVersion() {
+        return "$LATEST";
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+        return "arn:aws:lambda:us-east-1:000000000000:function:loadtest";
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+        return null;
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+        return null;
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+        return (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024));
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+        return logger;
+    }
+}
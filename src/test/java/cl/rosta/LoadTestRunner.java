@@ -0,0 +1,805 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Prueba de carga y soak: invoca los handlers dentro del proceso contra DynamoDB (normalmente
+// DynamoDB Local vía DYNAMODB_ENDPOINT) con una mezcla configurable de operaciones, IDs con
+// distribución Zipf, ráfagas de recargas del dashboard y ejecuciones periódicas del notificador.
+// La carga es de modelo abierto: cada operación tiene una hora de inicio planificada y la latencia
+// se mide desde esa hora, así las esperas en cola cuentan (sin coordinated omission).
+// Reporta percentiles (HdrHistogram), throughput, asignación de memoria por operación y pausas de GC
+public class LoadTestRunner {
+
+    private static final List<String> OPERATIONS = List.of("create", "list", "get", "update", "delete", "search", "dashboard", "notifier");
+    // Operación que no llegó a invocar un handler (por ejemplo, borrar sin libros); no entra al reporte
+    private static final int SKIPPED = 0;
+    private static final String DEFAULT_MIX = "create:10,list:5,get:45,update:20,delete:10,search:10";
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private static final String[] TITLE_WORDS = {
+            "sombra", "viento", "ciudad", "memoria", "río", "noche", "jardín", "isla", "camino", "silencio",
+            "fuego", "mar", "montaña", "tiempo", "casa", "espejo", "árbol", "invierno", "puerta", "sueño"};
+    private static final String[] FIRST_NAMES = {
+            "Ana", "José", "María", "Pedro", "Camila", "Matías", "Sofía", "Benjamín", "Valentina", "Tomás",
+            "Isidora", "Joaquín", "Florencia", "Vicente", "Catalina", "Martín"};
+    private static final String[] LAST_NAMES = {
+            "González", "Muñoz", "Rojas", "Díaz", "Pérez", "Soto", "Contreras", "Silva", "Martínez", "Sepúlveda",
+            "Morales", "Rodríguez", "López", "Fuentes", "Hernández", "Torres"};
+
+    private final Map<String, String> options;
+    private final DynamoDbClient dynamoDbClient;
+    private final FaultInjectingDynamoDbClient faultInjectingClient;
+    private final DynamoDbRetryPolicy retryPolicy;
+    private final LoadTestContext context;
+    private final ObjectMapper objectMapper;
+
+    private final BookLambdaHandler createHandler;
+    private final GetBookLambdaHandler listHandler;
+    private final GetIdBookLambdaHandler getHandler;
+    private final UpdateBookLambdaHandler updateHandler;
+    private final DeleteIdBookLambdaHandler deleteHandler;
+    private final SearchBooksLambdaHandler searchHandler;
+    private final GetBorrowerBooksLambdaHandler borrowerBooksHandler;
+
+    private final ZipfDistribution bookRanks;
+    private final ZipfDistribution borrowerRanks;
+    private final NavigableMap<Integer, String> mix = new TreeMap<>();
+    private final int mixTotal;
+
+    // IDs de libros vivos; el rango Zipf se aplica sobre la posición en el pool
+    private final BookIdPool bookIds = new BookIdPool();
+
+    private final Map<String, Histogram> responseTimes = new HashMap<>();
+    private final Map<String, Histogram> serviceTimes = new HashMap<>();
+    private final Map<String, LongAdder> allocatedBytes = new HashMap<>();
+    private final Map<String, LongAdder[]> statusCounts = new HashMap<>();
+    private final Histogram gcPauses = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final LongAdder gcPauseMicros = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong peakBacklog = new AtomicLong();
+
+    // Métricas EMF de los handlers agregadas por ruta
+    private final Map<String, LongAdder> routeRequests = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> routeDynamoDbCalls = new ConcurrentHashMap<>();
+    private final Map<String, DoubleAdder> routeConsumedCapacity = new ConcurrentHashMap<>();
+
+    private final com.sun.management.ThreadMXBean threadMXBean;
+
+    private volatile long measureStartNanos = Long.MAX_VALUE;
+
+    LoadTestRunner(Map<String, String> options, DynamoDbClient baseClient) {
+        this.options = options;
+        this.context = new LoadTestContext(options.containsKey("verbose"));
+        this.objectMapper = new ObjectMapper();
+
+        double throttleRate = doubleOption("throttle-rate", 0);
+        this.faultInjectingClient = throttleRate > 0 ? new FaultInjectingDynamoDbClient(baseClient, throttleRate) : null;
+        this.dynamoDbClient = faultInjectingClient != null ? faultInjectingClient : baseClient;
+
+        // Una sola política compartida, como los handlers de un mismo contenedor Lambda
+        this.retryPolicy = DynamoDbRetryPolicy.builder().build();
+        MetricsSink metricsSink = this::aggregate;
+
+        this.createHandler = new BookLambdaHandler(dynamoDbClient, retryPolicy, metricsSink);
+        this.listHandler = new GetBookLambdaHandler(dynamoDbClient, retryPolicy, metricsSink);
+        this.getHandler = new GetIdBookLambdaHandler(dynamoDbClient, retryPolicy, metricsSink);
+        this.updateHandler = new UpdateBookLambdaHandler(dynamoDbClient, retryPolicy, metricsSink);
+        this.deleteHandler = new DeleteIdBookLambdaHandler(dynamoDbClient, retryPolicy, metricsSink);
+        this.searchHandler = new SearchBooksLambdaHandler(dynamoDbClient, retryPolicy, metricsSink);
+        this.borrowerBooksHandler = new GetBorrowerBooksLambdaHandler(dynamoDbClient, retryPolicy, metricsSink);
+
+        double exponent = doubleOption("zipf", 1.0);
+        this.bookRanks = new ZipfDistribution(Math.max(1, intOption("books", 1000)), exponent);
+        this.borrowerRanks = new ZipfDistribution(Math.max(1, intOption("borrowers", 200)), exponent);
+        this.mixTotal = parseMix(options.getOrDefault("mix", DEFAULT_MIX));
+
+        for (String operation : OPERATIONS) {
+            responseTimes.put(operation, new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3));
+            serviceTimes.put(operation, new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3));
+            allocatedBytes.put(operation, new LongAdder());
+            // ok, 4xx, 429, 5xx
+            statusCounts.put(operation, new LongAdder[]{new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()});
+        }
+
+        this.threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        this.threadMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (options.containsKey("help")) {
+            printUsage();
+            System.exit(0);
+        }
+
+        DynamoDbClient baseClient = DynamoDbClients.create();
+        if (options.containsKey("create-tables")) {
+            createTables(baseClient);
+        }
+
+        LoadTestRunner runner = new LoadTestRunner(options, baseClient);
+        Map<String, Object> summary = runner.run();
+
+        String json = runner.objectMapper.enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(summary);
+        System.out.println(json);
+        if (options.containsKey("output")) {
+            runner.objectMapper.writeValue(new File(options.get("output")), summary);
+        }
+
+        List<String> violations = runner.checkThresholds(summary);
+        for (String violation : violations) {
+            System.err.println("FAILED: " + violation);
+        }
+        System.exit(violations.isEmpty() ? 0 : 1);
+    }
+
+    public Map<String, Object> run() throws Exception {
+        int threads = intOption("threads", 32);
+        double rate = doubleOption("rate", 50);
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be greater than 0");
+        }
+        long warmupNanos = TimeUnit.SECONDS.toNanos(intOption("warmup", 10));
+        long durationNanos = TimeUnit.SECONDS.toNanos(intOption("duration", 60));
+        long burstEveryNanos = TimeUnit.SECONDS.toNanos(intOption("burst-every", 30));
+        int burstSize = intOption("burst-size", 20);
+        long notifierEveryNanos = TimeUnit.SECONDS.toNanos(intOption("notifier-every", 60));
+        int maxBacklog = intOption("max-backlog", threads * 100);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        workers.prestartAllCoreThreads();
+
+        try {
+            seed(workers, intOption("books", 1000));
+            registerGcListener();
+
+            long start = System.nanoTime();
+            long end = start + warmupNanos + durationNanos;
+            measureStartNanos = start + warmupNanos;
+            System.err.println("Running " + (warmupNanos + durationNanos) / 1_000_000_000 + "s at " + rate + " ops/s ("
+                    + warmupNanos / 1_000_000_000 + "s warmup)");
+
+            long nextBurst = burstEveryNanos > 0 ? start + burstEveryNanos : Long.MAX_VALUE;
+            long nextNotifier = notifierEveryNanos > 0 ? start + notifierEveryNanos : Long.MAX_VALUE;
+
+            for (long intended = start; intended < end; intended += intervalNanos) {
+                sleepUntil(intended);
+
+                submit(workers, pickOperation(), intended, maxBacklog);
+
+                // Varios usuarios recargan el dashboard a la vez
+                if (intended >= nextBurst) {
+                    for (int i = 0; i < burstSize; i++) {
+                        submit(workers, "dashboard", intended, maxBacklog);
+                    }
+                    nextBurst += burstEveryNanos;
+                }
+                if (intended >= nextNotifier) {
+                    submit(workers, "notifier", intended, maxBacklog);
+                    nextNotifier += notifierEveryNanos;
+                }
+            }
+
+            workers.shutdown();
+            if (!workers.awaitTermination(5, TimeUnit.MINUTES)) {
+                System.err.println("Timed out waiting for pending operations");
+            }
+
+            // El throughput se calcula sobre la ventana planificada, no sobre el tiempo de vaciado de la cola
+            return summarize(durationNanos / 1e9);
+
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void submit(ThreadPoolExecutor workers, String operation, long intendedNanos, int maxBacklog) {
+        int backlog = workers.getQueue().size();
+        peakBacklog.accumulateAndGet(backlog, Math::max);
+        if (backlog >= maxBacklog) {
+            // El sistema no da abasto: se descarta para no agotar la memoria, pero queda en el reporte
+            if (intendedNanos >= measureStartNanos) {
+                dropped.increment();
+            }
+            return;
+        }
+        workers.execute(() -> execute(operation, intendedNanos));
+    }
+
+    private void execute(String operation, long intendedNanos) {
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long startedNanos = System.nanoTime();
+
+        int statusCode;
+        try {
+            statusCode = invoke(operation);
+        } catch (Exception e) {
+            context.getLogger().log("Error in " + operation + ": " + e.getMessage());
+            statusCode = 500;
+        }
+
+        long finishedNanos = System.nanoTime();
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        if (intendedNanos < measureStartNanos || statusCode == SKIPPED) {
+            return;
+        }
+
+        // Tiempo de respuesta desde la hora planificada (incluye la espera en cola) y tiempo de servicio
+        responseTimes.get(operation).recordValue(toMicros(finishedNanos - intendedNanos));
+        serviceTimes.get(operation).recordValue(toMicros(finishedNanos - startedNanos));
+        allocatedBytes.get(operation).add(Math.max(0, allocated));
+
+        LongAdder[] counts = statusCounts.get(operation);
+        if (statusCode == 429) {
+            counts[2].increment();
+        } else if (statusCode >= 500) {
+            counts[3].increment();
+        } else if (statusCode >= 400) {
+            counts[1].increment();
+        } else {
+            counts[0].increment();
+        }
+    }
+
+    private int invoke(String operation) throws Exception {
+        switch (operation) {
+            case "create":
+                return createBook();
+            case "list":
+            case "dashboard":
+                return listHandler.handleRequest(new APIGatewayProxyRequestEvent(), context).getStatusCode();
+            case "get": {
+                String bookId = pickBookId();
+                if (bookId == null) {
+                    return createBook();
+                }
+                return getHandler.handleRequest(new APIGatewayProxyRequestEvent()
+                        .withPathParameters(Map.of("id", bookId)), context).getStatusCode();
+            }
+            case "update":
+                return updateBook();
+            case "delete":
+                return deleteBook();
+            case "search":
+                return searchHandler.handleRequest(new APIGatewayProxyRequestEvent()
+                        .withQueryStringParameters(Map.of("q", randomQuery())), context).getStatusCode();
+            case "notifier":
+                return runNotifier();
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    private int createBook() throws Exception {
+        APIGatewayProxyResponseEvent response = createHandler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withBody(objectMapper.writeValueAsString(randomBook())), context);
+
+        if (response.getStatusCode() == 201) {
+            addBookId(objectMapper.readTree(response.getBody()).get("id").asText());
+        }
+        return response.getStatusCode();
+    }
+
+    private int updateBook() throws Exception {
+        String bookId = pickBookId();
+        if (bookId == null) {
+            return createBook();
+        }
+
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("retorno_fecha", LocalDate.now(LoanHistory.ZONE).plusDays(ThreadLocalRandom.current().nextInt(-5, 21)).toString());
+        // Una parte de las actualizaciones cambia de prestatario (mueve el préstamo activo)
+        if (ThreadLocalRandom.current().nextInt(5) == 0) {
+            updates.putAll(randomBorrower());
+        }
+
+        return updateHandler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withPathParameters(Map.of("id", bookId))
+                .withBody(objectMapper.writeValueAsString(updates)), context).getStatusCode();
+    }
+
+    private int deleteBook() {
+        String bookId = pickBookId();
+        if (bookId == null) {
+            // Sin libros no hay nada que borrar: no se cuenta como respuesta del handler
+            return SKIPPED;
+        }
+
+        int statusCode = deleteHandler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withPathParameters(Map.of("id", bookId)), context).getStatusCode();
+        if (statusCode == 200 || statusCode == 404) {
+            removeBookId(bookId);
+        }
+        return statusCode;
+    }
+
+    // Simulación en Java del notificador: las mismas consultas que vencidosBook.js (prestatarios con
+    // préstamos activos y, por cada uno, sus libros que vencen dentro de los próximos días), sin publicar en SNS.
+    // Mide la carga que el notificador agrega a DynamoDB, no el script de Node.js
+    private int runNotifier() {
+        String dueBefore = LocalDate.now(LoanHistory.ZONE).plusDays(3).toString();
+        int worstStatus = 200;
+        for (int shard = 0; shard < LoanHistory.ROLLUP_SHARDS; shard++) {
+            String partition = LoanHistory.partition(LoanHistory.DIMENSION_BORROWER, shard);
+            Map<String, AttributeValue> exclusiveStartKey = null;
+
+            do {
+                QueryRequest.Builder queryRequestBuilder = QueryRequest.builder()
+                        .tableName(LoanHistory.ROLLUPS_TABLE)
+                        .indexName(LoanHistory.ACTIVE_BORROWERS_INDEX)
+                        .keyConditionExpression("#activeFlag = :partition")
+                        .expressionAttributeNames(Map.of("#activeFlag", LoanHistory.ACTIVE_ATTRIBUTE))
+                        .expressionAttributeValues(Map.of(
+                                ":partition", AttributeValue.builder().s(partition).build()));
+                if (exclusiveStartKey != null) {
+                    queryRequestBuilder.exclusiveStartKey(exclusiveStartKey);
+                }
+                QueryRequest queryRequest = queryRequestBuilder.build();
+
+                QueryResponse response = retryPolicy.execute(() -> dynamoDbClient.query(queryRequest));
+                for (Map<String, AttributeValue> rollup : response.items()) {
+                    // Una marca que quedó sin limpiar no genera notificaciones
+                    AttributeValue active = rollup.get("active_loans");
+                    if (active == null || Long.parseLong(active.n()) <= 0) {
+                        continue;
+                    }
+                    int statusCode = borrowerBooksHandler.handleRequest(new APIGatewayProxyRequestEvent()
+                            .withPathParameters(Map.of("key", rollup.get("key").s()))
+                            .withQueryStringParameters(Map.of("due_before", dueBefore)), context).getStatusCode();
+                    worstStatus = Math.max(worstStatus, statusCode);
+                }
+
+                exclusiveStartKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty() ? response.lastEvaluatedKey() : null;
+            } while (exclusiveStartKey != null);
+        }
+
+        return worstStatus;
+    }
+
+    private void seed(ThreadPoolExecutor workers, int books) throws Exception {
+        System.err.println("Seeding " + books + " books...");
+        List<Future<Integer>> pending = new ArrayList<>();
+        for (int i = 0; i < books; i++) {
+            pending.add(workers.submit(this::createBook));
+        }
+        int failed = 0;
+        for (Future<Integer> future : pending) {
+            if (future.get() != 201) {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            System.err.println(failed + " seed books could not be created");
+        }
+    }
+
+    private Map<String, Object> randomBook() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LocalDate loaned = LocalDate.now(LoanHistory.ZONE).minusDays(random.nextInt(0, 30));
+
+        Map<String, Object> book = new LinkedHashMap<>();
+        book.put("title", capitalize(pick(TITLE_WORDS)) + " de " + pick(TITLE_WORDS) + " " + random.nextInt(1, 100));
+        book.put("author", pick(FIRST_NAMES) + " " + pick(LAST_NAMES));
+        book.putAll(randomBorrower());
+        book.put("telefono", "+569" + (10000000 + random.nextInt(90000000)));
+        book.put("prestado_fecha", loaned.toString());
+        book.put("retorno_fecha", loaned.plusDays(random.nextInt(7, 22)).toString());
+        return book;
+    }
+
+    // Los prestatarios también siguen una distribución Zipf: unos pocos piden muchos libros
+    private Map<String, Object> randomBorrower() {
+        int borrower = borrowerRanks.sample();
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("prestado_a", FIRST_NAMES[borrower % FIRST_NAMES.length] + " " + LAST_NAMES[(borrower / FIRST_NAMES.length) % LAST_NAMES.length]);
+        fields.put("email", "lector" + borrower + "@ejemplo.cl");
+        return fields;
+    }
+
+    private String randomQuery() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String word = random.nextBoolean() ? pick(TITLE_WORDS) : pick(LAST_NAMES);
+        // La mitad de las búsquedas son prefijos, como al escribir en el buscador
+        return random.nextBoolean() ? word.substring(0, Math.min(word.length(), random.nextInt(2, 6))) : word;
+    }
+
+    private String pickOperation() {
+        return mix.higherEntry(ThreadLocalRandom.current().nextInt(mixTotal)).getValue();
+    }
+
+    private void addBookId(String bookId) {
+        bookIds.add(bookId);
+    }
+
+    private void removeBookId(String bookId) {
+        bookIds.remove(bookId);
+    }
+
+    // El rango Zipf se reparte sobre los libros vivos; si hay menos libros que rangos, se pliega
+    private String pickBookId() {
+        return bookIds.pick(bookRanks.sample());
+    }
+
+    private void aggregate(RequestMetrics metrics) {
+        if (System.nanoTime() < measureStartNanos) {
+            return;
+        }
+        routeRequests.computeIfAbsent(metrics.getRoute(), route -> new LongAdder()).increment();
+        routeDynamoDbCalls.computeIfAbsent(metrics.getRoute(), route -> new LongAdder()).add(metrics.getDynamoDbCalls());
+        routeConsumedCapacity.computeIfAbsent(metrics.getRoute(), route -> new DoubleAdder()).add(metrics.getConsumedCapacity());
+    }
+
+    private void registerGcListener() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(collector instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())
+                        || System.nanoTime() < measureStartNanos) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long pauseMicros = TimeUnit.MILLISECONDS.toMicros(info.getGcInfo().getDuration());
+                gcPauses.recordValue(Math.min(pauseMicros, HIGHEST_TRACKABLE_MICROS));
+                gcPauseMicros.add(pauseMicros);
+            }, null, null);
+        }
+    }
+
+    private Map<String, Object> summarize(double measuredSeconds) throws Exception {
+        Map<String, Object> operations = new LinkedHashMap<>();
+        long totalRequests = 0;
+        long totalAllocated = 0;
+
+        for (String operation : OPERATIONS) {
+            Histogram responseTime = responseTimes.get(operation);
+            long count = responseTime.getTotalCount();
+            if (count == 0) {
+                continue;
+            }
+            LongAdder[] counts = statusCounts.get(operation);
+            long allocated = allocatedBytes.get(operation).sum();
+            totalRequests += count;
+            totalAllocated += allocated;
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("count", count);
+            result.put("throughput", count / measuredSeconds);
+            result.put("ok", counts[0].sum());
+            result.put("client_errors", counts[1].sum());
+            result.put("throttled", counts[2].sum());
+            result.put("server_errors", counts[3].sum());
+            result.put("latency_ms", percentiles(responseTime));
+            result.put("service_time_ms", percentiles(serviceTimes.get(operation)));
+            result.put("allocated_bytes_per_op", allocated / count);
+            operations.put(operation, result);
+
+            writeHistogram(operation, responseTime);
+        }
+
+        Map<String, Object> routes = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : routeRequests.entrySet()) {
+            long requests = entry.getValue().sum();
+            Map<String, Object> route = new LinkedHashMap<>();
+            route.put("requests", requests);
+            route.put("dynamodb_calls_per_request", (double) routeDynamoDbCalls.get(entry.getKey()).sum() / requests);
+            route.put("consumed_capacity_per_request", routeConsumedCapacity.get(entry.getKey()).sum() / requests);
+            routes.put(entry.getKey(), route);
+        }
+
+        Map<String, Object> gc = new LinkedHashMap<>();
+        gc.put("pauses", gcPauses.getTotalCount());
+        gc.put("total_pause_ms", gcPauseMicros.sum() / 1000.0);
+        gc.put("pause_ms", percentiles(gcPauses));
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("measured_seconds", measuredSeconds);
+        summary.put("target_rate", doubleOption("rate", 50));
+        summary.put("requests", totalRequests);
+        summary.put("throughput", totalRequests / measuredSeconds);
+        summary.put("dropped", dropped.sum());
+        summary.put("max_backlog", peakBacklog.get());
+        summary.put("allocation_mb_per_second", totalAllocated / measuredSeconds / (1024 * 1024));
+        summary.put("gc", gc);
+        summary.put("operations", operations);
+        summary.put("notifier", "simulated in Java: same DynamoDB queries as vencidosBook.js, no SNS publish");
+        summary.put("routes", routes);
+        summary.put("circuit_open", retryPolicy.isCircuitOpen());
+        summary.put("client_rate_limit", retryPolicy.getRateLimiter().isEnabled() ? retryPolicy.getRateLimiter().getFillRate() : null);
+        if (faultInjectingClient != null) {
+            summary.put("injected_throttles", faultInjectingClient.getInjectedThrottles());
+        }
+        summary.put("handler_log_lines", context.getLoggedLines());
+        return summary;
+    }
+
+    private static Map<String, Object> percentiles(Histogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("p50", histogram.getValueAtPercentile(50) / 1000.0);
+        result.put("p90", histogram.getValueAtPercentile(90) / 1000.0);
+        result.put("p99", histogram.getValueAtPercentile(99) / 1000.0);
+        result.put("p999", histogram.getValueAtPercentile(99.9) / 1000.0);
+        result.put("max", histogram.getMaxValue() / 1000.0);
+        result.put("mean", histogram.getTotalCount() > 0 ? histogram.getMean() / 1000.0 : 0.0);
+        return result;
+    }
+
+    // Distribución completa en formato .hgrm, para graficar o comparar ejecuciones
+    private void writeHistogram(String operation, Histogram histogram) throws Exception {
+        String directory = options.get("histograms");
+        if (directory == null) {
+            return;
+        }
+        new File(directory).mkdirs();
+        try (PrintStream out = new PrintStream(new File(directory, operation + ".hgrm"), "UTF-8")) {
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    // Umbrales opcionales para usar la prueba como chequeo de regresión (código de salida 1)
+    @SuppressWarnings("unchecked")
+    List<String> checkThresholds(Map<String, Object> summary) {
+        List<String> violations = new ArrayList<>();
+        Map<String, Object> operations = (Map<String, Object>) summary.get("operations");
+
+        if (options.containsKey("max-p99-ms")) {
+            double maxP99 = doubleOption("max-p99-ms", 0);
+            for (Map.Entry<String, Object> entry : operations.entrySet()) {
+                Map<String, Object> latency = (Map<String, Object>) ((Map<String, Object>) entry.getValue()).get("latency_ms");
+                double p99 = (Double) latency.get("p99");
+                if (p99 > maxP99) {
+                    violations.add(entry.getKey() + " p99 " + p99 + "ms exceeds " + maxP99 + "ms");
+                }
+            }
+        }
+
+        if (options.containsKey("max-error-rate")) {
+            double maxErrorRate = doubleOption("max-error-rate", 0);
+            long requests = (Long) summary.get("requests");
+            long errors = (Long) summary.get("dropped");
+            for (Object value : operations.values()) {
+                Map<String, Object> operation = (Map<String, Object>) value;
+                errors += (Long) operation.get("throttled") + (Long) operation.get("server_errors");
+            }
+            double errorRate = requests > 0 ? (double) errors / requests : 0;
+            if (errorRate > maxErrorRate) {
+                violations.add("error rate " + errorRate + " exceeds " + maxErrorRate);
+            }
+        }
+
+        return violations;
+    }
+
+    // Crea las tablas que falten (para DynamoDB Local)
+    static void createTables(DynamoDbClient client) {
+        createTable(client, CreateTableRequest.builder()
+                .tableName("books")
+                .attributeDefinitions(attribute("id"), attribute(BorrowerKeys.ATTRIBUTE), attribute(BorrowerKeys.NAME_ATTRIBUTE))
+                .keySchema(KeySchemaElement.builder().attributeName("id").keyType(KeyType.HASH).build())
+                .globalSecondaryIndexes(
+                        borrowerIndex(BorrowerKeys.INDEX_NAME, BorrowerKeys.ATTRIBUTE),
+                        borrowerIndex(BorrowerKeys.NAME_INDEX_NAME, BorrowerKeys.NAME_ATTRIBUTE))
+                .billingMode(BillingMode.PAY_PER_REQUEST)
+                .build());
+        createTable(client, compositeKeyTable(LoanHistory.HISTORY_TABLE, "month", "returned_id"));
+        createTable(client, CreateTableRequest.builder()
+                .tableName(LoanHistory.ROLLUPS_TABLE)
+                .attributeDefinitions(attribute(LoanHistory.PARTITION_ATTRIBUTE), attribute("key"), attribute(LoanHistory.ACTIVE_ATTRIBUTE))
+                .keySchema(
+                        KeySchemaElement.builder().attributeName(LoanHistory.PARTITION_ATTRIBUTE).keyType(KeyType.HASH).build(),
+                        KeySchemaElement.builder().attributeName("key").keyType(KeyType.RANGE).build())
+                .globalSecondaryIndexes(GlobalSecondaryIndex.builder()
+                        .indexName(LoanHistory.ACTIVE_BORROWERS_INDEX)
+                        .keySchema(
+                                KeySchemaElement.builder().attributeName(LoanHistory.ACTIVE_ATTRIBUTE).keyType(KeyType.HASH).build(),
+                                KeySchemaElement.builder().attributeName("key").keyType(KeyType.RANGE).build())
+                        .projection(Projection.builder()
+                                .projectionType(ProjectionType.INCLUDE)
+                                .nonKeyAttributes("label", "active_loans")
+                                .build())
+                        .build())
+                .billingMode(BillingMode.PAY_PER_REQUEST)
+                .build());
+        createTable(client, compositeKeyTable(SearchIndex.TABLE, "term", SearchIndex.RANK));
+    }
+
+    private static CreateTableRequest compositeKeyTable(String tableName, String hashKey, String rangeKey) {
+        return CreateTableRequest.builder()
+                .tableName(tableName)
+                .attributeDefinitions(attribute(hashKey), attribute(rangeKey))
+                .keySchema(
+                        KeySchemaElement.builder().attributeName(hashKey).keyType(KeyType.HASH).build(),
+                        KeySchemaElement.builder().attributeName(rangeKey).keyType(KeyType.RANGE).build())
+                .billingMode(BillingMode.PAY_PER_REQUEST)
+                .build();
+    }
+
+    // Índice de books por prestatario; la clave de orden es id para incluir los libros sin retorno_fecha
+    private static GlobalSecondaryIndex borrowerIndex(String indexName, String hashKey) {
+        return GlobalSecondaryIndex.builder()
+                .indexName(indexName)
+                .keySchema(
+                        KeySchemaElement.builder().attributeName(hashKey).keyType(KeyType.HASH).build(),
+                        KeySchemaElement.builder().attributeName("id").keyType(KeyType.RANGE).build())
+                .projection(Projection.builder().projectionType(ProjectionType.ALL).build())
+                .build();
+    }
+
+    private static AttributeDefinition attribute(String name) {
+        return AttributeDefinition.builder().attributeName(name).attributeType(ScalarAttributeType.S).build();
+    }
+
+    private static void createTable(DynamoDbClient client, CreateTableRequest request) {
+        try {
+            client.describeTable(DescribeTableRequest.builder().tableName(request.tableName()).build());
+            return;
+        } catch (ResourceNotFoundException e) {
+            // La tabla no existe todavía
+        }
+        System.err.println("Creating table " + request.tableName());
+        client.createTable(request);
+        client.waiter().waitUntilTableExists(DescribeTableRequest.builder().tableName(request.tableName()).build());
+    }
+
+    private int parseMix(String value) {
+        int total = 0;
+        for (String part : value.split(",")) {
+            String[] entry = part.trim().split(":");
+            if (entry.length != 2 || !OPERATIONS.contains(entry[0])) {
+                throw new IllegalArgumentException("Invalid mix entry: " + part);
+            }
+            int weight = Integer.parseInt(entry[1]);
+            if (weight > 0) {
+                total += weight;
+                mix.put(total, entry[0]);
+            }
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("mix must have at least one operation with weight > 0");
+        }
+        return total;
+    }
+
+    // Opciones como --nombre=valor; las opciones sin valor quedan como flags
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        return options;
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: LoadTestRunner [options]\n"
+                + "  --duration=60          measured seconds\n"
+                + "  --warmup=10            seconds before measuring\n"
+                + "  --rate=50              planned operations per second (open model)\n"
+                + "  --threads=32           concurrent workers\n"
+                + "  --mix=" + DEFAULT_MIX + "\n"
+                + "                         weights of create, list, get, update, delete, search\n"
+                + "  --books=1000           books created before the run (and Zipf key space)\n"
+                + "  --borrowers=200        distinct borrowers\n"
+                + "  --zipf=1.0             Zipf exponent for book and borrower popularity\n"
+                + "  --burst-every=30       seconds between dashboard reload bursts (0 disables)\n"
+                + "  --burst-size=20        GET /book requests per burst\n"
+                + "  --notifier-every=60    seconds between simulated notifier runs: the queries of\n"
+                + "                         vencidosBook.js replayed in Java, without SNS (0 disables)\n"
+                + "  --throttle-rate=0      fraction of DynamoDB calls rejected with synthetic throttling\n"
+                + "  --max-backlog=N        queued operations before dropping (default threads*100)\n"
+                + "  --create-tables        create missing tables (DynamoDB Local)\n"
+                + "  --output=FILE          write the JSON summary to FILE\n"
+                + "  --histograms=DIR       write .hgrm latency distributions to DIR\n"
+                + "  --max-p99-ms=N         exit 1 if any operation p99 exceeds N ms\n"
+                + "  --max-error-rate=R     exit 1 if 429/5xx/dropped exceed fraction R\n"
+                + "  --verbose              print handler logs");
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    private double doubleOption(String name, double defaultValue) {
+        return options.containsKey(name) ? Double.parseDouble(options.get(name)) : defaultValue;
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    private static void sleepUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static String pick(String[] values) {
+        return values[ThreadLocalRandom.current().nextInt(values.length)];
+    }
+
+    private static String capitalize(String value) {
+        return Character.toUpperCase(value.charAt(0)) + value.substring(1);
+    }
+
+    // Lista de IDs con índice inverso: agregar, quitar y elegir son O(1). Al quitar, el último ID ocupa
+    // el lugar del quitado. Las elecciones (get, update, delete) comparten el lock de lectura
+    private static class BookIdPool {
+        private final List<String> ids = new ArrayList<>();
+        private final Map<String, Integer> positions = new HashMap<>();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        void add(String id) {
+            lock.writeLock().lock();
+            try {
+                if (positions.putIfAbsent(id, ids.size()) == null) {
+                    ids.add(id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(String id) {
+            lock.writeLock().lock();
+            try {
+                Integer position = positions.remove(id);
+                if (position == null) {
+                    return;
+                }
+                String last = ids.remove(ids.size() - 1);
+                if (position < ids.size()) {
+                    ids.set(position, last);
+                    positions.put(last, position);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        String pick(int rank) {
+            lock.readLock().lock();
+            try {
+                return ids.isEmpty() ? null : ids.get(rank % ids.size());
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
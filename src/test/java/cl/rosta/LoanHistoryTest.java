@@ -0,0 +1,55 @@
+package cl.rosta;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoanHistoryTest {
+
+    @Test
+    void newLoanMarksBorrowerAsActive() {
+        Update update = LoanHistory.activeLoansUpdate("ana", "Ana", 1);
+
+        assertTrue(update.updateExpression().startsWith("SET "));
+        assertTrue(update.expressionAttributeNames().containsValue(LoanHistory.ACTIVE_ATTRIBUTE));
+        // La marca es la partición del prestatario, así el índice de activos queda repartido en fragmentos
+        assertEquals(LoanHistory.partition(LoanHistory.DIMENSION_BORROWER, "ana"), update.expressionAttributeValues().get(":partition").s());
+        assertEquals(update.key().get(LoanHistory.PARTITION_ATTRIBUTE), update.expressionAttributeValues().get(":partition"));
+    }
+
+    @Test
+    void returnedLoanDoesNotTouchTheMark() {
+        Update update = LoanHistory.activeLoansUpdate("ana", null, -1);
+
+        assertEquals("ADD #active :delta", update.updateExpression());
+        assertFalse(update.expressionAttributeNames().containsValue(LoanHistory.ACTIVE_ATTRIBUTE));
+    }
+
+    @Test
+    void clearingABorrowerWithLoansLeftIsIgnored() {
+        List<UpdateItemRequest> requests = new ArrayList<>();
+        StubDynamoDbClient client = new StubDynamoDbClient() {
+            @Override
+            public UpdateItemResponse updateItem(UpdateItemRequest request) {
+                requests.add(request);
+                throw ConditionalCheckFailedException.builder().message("Still active").build();
+            }
+        };
+
+        LoanHistory.clearInactiveBorrower(client, DynamoDbRetryPolicy.builder().build(), "ana",
+                RequestMetrics.start("test", null));
+
+        assertEquals(1, requests.size());
+        assertEquals("REMOVE #activeFlag", requests.get(0).updateExpression());
+        assertTrue(requests.get(0).conditionExpression().contains("#active <= :zero"));
+    }
+}
@@ -0,0 +1,158 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestMetricsTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final InMemoryMetricsSink sink = new InMemoryMetricsSink();
+
+    @Test
+    void countsAttemptsAndRetriesPerLogicalCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        DynamoDbClient client = new StubDynamoDbClient() {
+            @Override
+            public GetItemResponse getItem(GetItemRequest request) {
+                if (calls.incrementAndGet() == 1) {
+                    throw StubDynamoDbClient.throttle();
+                }
+                return GetItemResponse.builder()
+                        .item(Map.of("id", AttributeValue.builder().s("1").build()))
+                        .consumedCapacity(ConsumedCapacity.builder().capacityUnits(0.5).build())
+                        .build();
+            }
+        };
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(getBook("1"), new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        RequestMetrics metrics = sink.getRecorded().get(0);
+        assertEquals(1, metrics.getDynamoDbCalls());
+        assertEquals(2, metrics.getDynamoDbAttempts());
+        assertEquals(1, metrics.getDynamoDbRetries());
+        assertEquals(0.5, metrics.getConsumedCapacity());
+
+        JsonNode emf = objectMapper.readTree(sink.toEmfLines().get(0));
+        assertEquals(1, emf.get("DynamoDbCalls").asInt());
+        assertEquals(2, emf.get("DynamoDbAttempts").asInt());
+        assertEquals(1, emf.get("DynamoDbRetries").asInt());
+        assertEquals(0, emf.get("Errors").asInt());
+    }
+
+    @Test
+    void latencyExcludesBackoffSleeps() {
+        AtomicInteger calls = new AtomicInteger();
+        DynamoDbClient client = new StubDynamoDbClient() {
+            @Override
+            public GetItemResponse getItem(GetItemRequest request) {
+                if (calls.incrementAndGet() < 3) {
+                    throw StubDynamoDbClient.throttle();
+                }
+                return GetItemResponse.builder().build();
+            }
+        };
+        // Tras el primer throttle el limitador de tasa queda en 2 llamadas por segundo: cada reintento espera ~500 ms
+        DynamoDbRetryPolicy retryPolicy = DynamoDbRetryPolicy.builder()
+                .baseDelayMillis(1)
+                .maxDelayMillis(1)
+                .minRate(2)
+                .maxRate(2)
+                .build();
+
+        new GetIdBookLambdaHandler(client, retryPolicy, sink).handleRequest(getBook("1"), new LoadTestContext(false));
+
+        RequestMetrics metrics = sink.getRecorded().get(0);
+        assertEquals(3, metrics.getDynamoDbAttempts());
+        assertTrue(metrics.getDynamoDbWaitMillis() >= 500);
+        // El stub responde al instante: el tiempo de DynamoDB no incluye las esperas entre intentos
+        assertTrue(metrics.getDynamoDbNanos() < metrics.getDynamoDbWaitMillis() * 1_000_000L);
+        assertTrue(metrics.getDynamoDbNanos() + metrics.getDynamoDbWaitMillis() * 1_000_000L <= metrics.getLatencyNanos());
+    }
+
+    @Test
+    void clientErrorsAreNotServerErrors() throws Exception {
+        APIGatewayProxyResponseEvent response = handler(new StubDynamoDbClient()).handleRequest(getBook(null), new LoadTestContext(false));
+
+        assertEquals(400, response.getStatusCode());
+        RequestMetrics metrics = sink.getRecorded().get(0);
+        assertNull(metrics.getErrorClass());
+
+        JsonNode emf = objectMapper.readTree(sink.toEmfLines().get(0));
+        assertEquals(0, emf.get("Errors").asInt());
+        assertEquals(1, emf.get("ClientErrors").asInt());
+        assertEquals(0, emf.get("Throttles").asInt());
+    }
+
+    @Test
+    void serverFailuresCountAsErrors() throws Exception {
+        DynamoDbClient client = new StubDynamoDbClient() {
+            @Override
+            public GetItemResponse getItem(GetItemRequest request) {
+                throw ResourceNotFoundException.builder().message("Table not found").build();
+            }
+        };
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(getBook("1"), new LoadTestContext(false));
+
+        assertEquals(500, response.getStatusCode());
+        JsonNode emf = objectMapper.readTree(sink.toEmfLines().get(0));
+        assertEquals(1, emf.get("Errors").asInt());
+        assertEquals(0, emf.get("ClientErrors").asInt());
+        assertEquals(1, emf.get("DynamoDbAttempts").asInt());
+        assertEquals(0, emf.get("DynamoDbRetries").asInt());
+    }
+
+    @Test
+    void throttledRequestsAreCountedSeparately() throws Exception {
+        DynamoDbClient client = new StubDynamoDbClient() {
+            @Override
+            public GetItemResponse getItem(GetItemRequest request) {
+                throw StubDynamoDbClient.throttle();
+            }
+        };
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(getBook("1"), new LoadTestContext(false));
+
+        assertEquals(429, response.getStatusCode());
+        JsonNode emf = objectMapper.readTree(sink.toEmfLines().get(0));
+        assertEquals(0, emf.get("Errors").asInt());
+        assertEquals(0, emf.get("ClientErrors").asInt());
+        assertEquals(1, emf.get("Throttles").asInt());
+        assertEquals(1, emf.get("DynamoDbCalls").asInt());
+        assertEquals(4, emf.get("DynamoDbAttempts").asInt());
+        assertEquals(3, emf.get("DynamoDbRetries").asInt());
+    }
+
+    private GetIdBookLambdaHandler handler(DynamoDbClient client) {
+        DynamoDbRetryPolicy retryPolicy = DynamoDbRetryPolicy.builder()
+                .baseDelayMillis(1)
+                .maxDelayMillis(1)
+                .build();
+        return new GetIdBookLambdaHandler(client, retryPolicy, sink);
+    }
+
+    private static APIGatewayProxyRequestEvent getBook(String id) {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        if (id != null) {
+            event.setPathParameters(Map.of("id", id));
+        }
+        return event;
+    }
+}
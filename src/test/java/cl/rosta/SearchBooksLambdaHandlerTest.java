@@ -0,0 +1,173 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchBooksLambdaHandlerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void bestScoresComeFirstAndPagesResumeAfterTheLastEntry() throws Exception {
+        IndexClient client = new IndexClient();
+        client.add("1", "Otros", "Julio Cortázar");
+        client.add("2", "Cortázar", "Ana");
+        client.add("3", "Cortázar", "Julio Cortázar");
+
+        APIGatewayProxyResponseEvent first = handler(client).handleRequest(search("cortazar", 2, null), new LoadTestContext(false));
+
+        Map<?, ?> body = objectMapper.readValue(first.getBody(), Map.class);
+        // Título y autor (6 + 4), solo título (6), solo autor (4)
+        assertEquals(List.of("3", "2"), ids(body));
+        assertEquals(List.of(2), client.limits);
+        assertNotNull(body.get("next"));
+
+        APIGatewayProxyResponseEvent second = handler(client).handleRequest(search("cortazar", 2, (String) body.get("next")),
+                new LoadTestContext(false));
+
+        body = objectMapper.readValue(second.getBody(), Map.class);
+        assertEquals(List.of("1"), ids(body));
+        assertNull(body.get("next"));
+    }
+
+    @Test
+    void otherWordsAreFilteredWithinABoundedRead() throws Exception {
+        IndexClient client = new IndexClient();
+        // 1500 libros de Cortázar, dos de ellos con "Rayuela" en el título, el segundo al final del índice
+        for (int i = 0; i < 1500; i++) {
+            String title = i == 10 || i == 1499 ? "Rayuela " + i : "Cuentos " + i;
+            client.add(String.format("%04d", i), title, "Julio Cortázar");
+        }
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(search("ray cortazar", 20, null), new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        assertTrue(client.queriedTerms.stream().allMatch("cortazar"::equals));
+        assertEquals(SearchBooksLambdaHandler.MAX_ENTRIES_READ, client.returned);
+
+        Map<?, ?> body = objectMapper.readValue(response.getBody(), Map.class);
+        List<?> items = (List<?>) body.get("items");
+        assertEquals(1, items.size());
+        // "ray" es prefijo del título (3) y "cortazar" palabra completa del autor (2 * 2)
+        assertEquals(7, ((Map<?, ?>) items.get(0)).get("score"));
+
+        // Siguiendo next se llega al segundo sin releer entradas
+        List<Object> found = new ArrayList<>(ids(body));
+        while (body.get("next") != null) {
+            body = objectMapper.readValue(handler(client).handleRequest(search("ray cortazar", 20, (String) body.get("next")),
+                    new LoadTestContext(false)).getBody(), Map.class);
+            found.addAll(ids(body));
+        }
+        assertEquals(List.of("0010", "1499"), found);
+        assertEquals(1500, client.returned);
+    }
+
+    @Test
+    void longWordsAreConfirmedAgainstTheFullToken() throws Exception {
+        IndexClient client = new IndexClient();
+        client.add("1", "Extraordinario", "Ana");
+        client.add("2", "Extraordinaria", "Ana");
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(search("extraordinario", 20, null), new LoadTestContext(false));
+
+        Map<?, ?> body = objectMapper.readValue(response.getBody(), Map.class);
+        assertEquals(List.of("1"), ids(body));
+    }
+
+    @Test
+    void tokenFromAnotherSearchIsRejected() throws Exception {
+        IndexClient client = new IndexClient();
+        client.add("1", "Rayuela", "Julio Cortázar");
+        client.add("2", "Ficciones", "Jorge Luis Borges");
+        client.add("3", "Los premios", "Julio Cortázar");
+
+        APIGatewayProxyResponseEvent first = handler(client).handleRequest(search("julio", 1, null), new LoadTestContext(false));
+        String next = (String) objectMapper.readValue(first.getBody(), Map.class).get("next");
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(search("borges", 1, next), new LoadTestContext(false));
+
+        assertEquals(400, response.getStatusCode());
+        assertEquals(400, handler(client).handleRequest(search("julio", 1, "no-es-base64!"), new LoadTestContext(false)).getStatusCode());
+    }
+
+    private static SearchBooksLambdaHandler handler(IndexClient client) {
+        return new SearchBooksLambdaHandler(client, DynamoDbRetryPolicy.builder().build(), new InMemoryMetricsSink());
+    }
+
+    private static APIGatewayProxyRequestEvent search(String query, int limit, String next) {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("q", query);
+        parameters.put("limit", Integer.toString(limit));
+        if (next != null) {
+            parameters.put("next", next);
+        }
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        event.setQueryStringParameters(parameters);
+        return event;
+    }
+
+    private static List<Object> ids(Map<?, ?> body) {
+        List<Object> ids = new ArrayList<>();
+        for (Object item : (List<?>) body.get("items")) {
+            ids.add(((Map<?, ?>) item).get("id"));
+        }
+        return ids;
+    }
+
+    // Guarda las entradas que escribiría SearchIndex y responde Query como DynamoDB: en orden de rank,
+    // desde ExclusiveStartKey y hasta Limit items
+    private static class IndexClient extends StubDynamoDbClient {
+        private final List<Map<String, AttributeValue>> entries = new ArrayList<>();
+        private final List<String> queriedTerms = new ArrayList<>();
+        private final List<Integer> limits = new ArrayList<>();
+        private int returned;
+
+        void add(String bookId, String title, String author) {
+            Map<String, AttributeValue> book = new HashMap<>();
+            book.put("title", AttributeValue.builder().s(title).build());
+            book.put("author", AttributeValue.builder().s(author).build());
+            entries.addAll(SearchIndex.entries(bookId, book, 0));
+        }
+
+        @Override
+        public QueryResponse query(QueryRequest request) {
+            String term = request.expressionAttributeValues().get(":term").s();
+            queriedTerms.add(term);
+            limits.add(request.limit());
+
+            String after = request.hasExclusiveStartKey() ? request.exclusiveStartKey().get(SearchIndex.RANK).s() : "";
+            List<Map<String, AttributeValue>> matches = new ArrayList<>();
+            for (Map<String, AttributeValue> entry : entries) {
+                if (term.equals(entry.get("term").s()) && entry.get(SearchIndex.RANK).s().compareTo(after) > 0) {
+                    matches.add(entry);
+                }
+            }
+            matches.sort(Comparator.comparing((Map<String, AttributeValue> entry) -> entry.get(SearchIndex.RANK).s()));
+
+            List<Map<String, AttributeValue>> page = matches.subList(0, Math.min(matches.size(), request.limit()));
+            returned += page.size();
+            QueryResponse.Builder response = QueryResponse.builder().items(page);
+            if (page.size() < matches.size()) {
+                Map<String, AttributeValue> last = page.get(page.size() - 1);
+                response.lastEvaluatedKey(Map.of("term", last.get("term"), SearchIndex.RANK, last.get(SearchIndex.RANK)));
+            }
+            return response.build();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package cl.rosta;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+
+    @Test
+    void unchangedIndexedFieldsAreNotRewritten() {
+        IndexClient client = new IndexClient();
+        Map<String, AttributeValue> book = book("Rayuela", "Ana");
+
+        // Sin lecturas ni escrituras: los libros que quedaron sin entradas los repara SearchReindexJob
+        index(client).index("1", book, withPhone(book), RequestMetrics.start("test", null));
+
+        assertEquals(0, client.writes.size());
+    }
+
+    @Test
+    void changedBookRewritesAllTerms() {
+        IndexClient client = new IndexClient();
+
+        long before = System.currentTimeMillis();
+        index(client).index("1", book("Rayuela", "Ana"), book("Rayuela", "Beto"), RequestMetrics.start("test", null));
+
+        assertEquals(SearchIndex.terms(book("Rayuela", "Beto")).size(), client.puts());
+        assertTrue(client.writes.stream().anyMatch(write -> write.deleteRequest() != null));
+        // Cada entrada lleva el momento de escritura que usa SearchReindexJob para limpiar
+        assertTrue(client.writes.stream()
+                .filter(write -> write.putRequest() != null)
+                .allMatch(write -> Long.parseLong(write.putRequest().item().get(SearchIndex.INDEXED_AT).n()) >= before));
+    }
+
+    @Test
+    void changedScoreReplacesTheEntryKey() {
+        IndexClient client = new IndexClient();
+        Map<String, AttributeValue> oldBook = book("Rayuela", "Ana");
+        Map<String, AttributeValue> newBook = book("Rayuela de Ana", "Ana");
+
+        index(client).index("1", oldBook, newBook, RequestMetrics.start("test", null));
+
+        // "ana" pasa de prestatario (2) a título y prestatario (6 + 2): cambia su rank
+        assertTrue(client.writes.stream().anyMatch(write -> write.deleteRequest() != null
+                && write.deleteRequest().key().equals(SearchIndex.entryKey("ana", 2, "1"))));
+        assertTrue(client.writes.stream().anyMatch(write -> write.putRequest() != null
+                && write.putRequest().item().get(SearchIndex.RANK).s().equals(SearchIndex.rank(8, "1"))));
+        // "rayuela" mantiene su puntaje: solo se reescribe
+        assertTrue(client.writes.stream().noneMatch(write -> write.deleteRequest() != null
+                && "rayuela".equals(write.deleteRequest().key().get("term").s())));
+    }
+
+    private static SearchIndex index(IndexClient client) {
+        return new SearchIndex(client, DynamoDbRetryPolicy.builder().build());
+    }
+
+    private static Map<String, AttributeValue> book(String title, String borrower) {
+        Map<String, AttributeValue> book = new HashMap<>();
+        book.put("id", AttributeValue.builder().s("1").build());
+        book.put("title", AttributeValue.builder().s(title).build());
+        book.put("prestado_a", AttributeValue.builder().s(borrower).build());
+        return book;
+    }
+
+    private static Map<String, AttributeValue> withPhone(Map<String, AttributeValue> book) {
+        Map<String, AttributeValue> updated = new HashMap<>(book);
+        updated.put("telefono", AttributeValue.builder().s("555").build());
+        return updated;
+    }
+
+    private static class IndexClient extends StubDynamoDbClient {
+        private final List<WriteRequest> writes = new ArrayList<>();
+
+        @Override
+        public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+            writes.addAll(request.requestItems().get(SearchIndex.TABLE));
+            return BatchWriteItemResponse.builder().build();
+        }
+
+        int puts() {
+            return (int) writes.stream().filter(write -> write.putRequest() != null).count();
+        }
+    }
+}
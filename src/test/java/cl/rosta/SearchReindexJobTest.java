@@ -0,0 +1,139 @@
+package cl.rosta;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchReindexJobTest {
+
+    @Test
+    void writesEveryBookAndDeletesEntriesThatWereNotRewritten() throws Exception {
+        IndexClient client = new IndexClient();
+        Map<String, AttributeValue> book = Map.of(
+                "id", string("1"),
+                "title", string("Rayuela"),
+                "prestado_a", string("Ana"));
+        client.books.add(book);
+        // Término que el libro ya no tiene, libro eliminado, entrada anterior a indexed_at
+        // y libro creado después del scan (escrito por un handler durante la reconstrucción)
+        client.put(entry("beto", 2, "1", 1L));
+        client.put(entry("rayuela", SearchIndex.terms(book).get("rayuela"), "1", 1L));
+        // Término que sigue pero con otro puntaje: la entrada anterior tiene otra clave
+        client.put(entry("ana", 1, "1", 1L));
+        client.put(entry("ficciones", 6, "2", 1L));
+        client.put(entry("cuentos", 6, "2", null));
+        client.put(entry("aleph", 6, "3", Long.MAX_VALUE));
+
+        Map<String, Object> summary = new SearchReindexJob(client, DynamoDbRetryPolicy.builder().build()).reindex();
+
+        assertEquals(1L, summary.get("books"));
+        assertEquals((long) SearchIndex.terms(book).size(), summary.get("entriesWritten"));
+        assertEquals(4L, summary.get("entriesDeleted"));
+        assertEquals(Set.of(id("beto", 2, "1"), id("ana", 1, "1"), id("ficciones", 6, "2"), id("cuentos", 6, "2")), client.deleted);
+        assertTrue(client.index.containsKey(id("rayuela", SearchIndex.terms(book).get("rayuela"), "1")));
+        assertTrue(client.index.containsKey(id("ana", SearchIndex.terms(book).get("ana"), "1")));
+        assertTrue(client.index.containsKey(id("aleph", 6, "3")));
+    }
+
+    @Test
+    void entryRewrittenAfterTheScanIsKept() throws Exception {
+        IndexClient client = new IndexClient();
+        client.put(entry("beto", 2, "1", 1L));
+        client.rewrittenAfterScan.add(id("beto", 2, "1"));
+
+        Map<String, Object> summary = new SearchReindexJob(client, DynamoDbRetryPolicy.builder().build()).reindex();
+
+        assertEquals(0L, summary.get("entriesDeleted"));
+        assertTrue(client.deleted.isEmpty());
+    }
+
+    private static Map<String, AttributeValue> entry(String term, int score, String bookId, Long indexedAt) {
+        Map<String, AttributeValue> entry = new HashMap<>(SearchIndex.entryKey(term, score, bookId));
+        if (indexedAt != null) {
+            entry.put(SearchIndex.INDEXED_AT, AttributeValue.builder().n(Long.toString(indexedAt)).build());
+        }
+        return entry;
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static String id(String term, int score, String bookId) {
+        return id(SearchIndex.entryKey(term, score, bookId));
+    }
+
+    private static String id(Map<String, AttributeValue> key) {
+        return key.get("term").s() + "/" + key.get(SearchIndex.RANK).s();
+    }
+
+    // Guarda books_search en memoria y evalúa el filtro y la condición de indexed_at del job
+    private static class IndexClient extends StubDynamoDbClient {
+        private final List<Map<String, AttributeValue>> books = new ArrayList<>();
+        private final Map<String, Map<String, AttributeValue>> index = new LinkedHashMap<>();
+        private final Set<String> rewrittenAfterScan = new HashSet<>();
+        private final Set<String> deleted = new HashSet<>();
+
+        void put(Map<String, AttributeValue> entry) {
+            index.put(id(entry), entry);
+        }
+
+        @Override
+        public ScanResponse scan(ScanRequest request) {
+            if ("books".equals(request.tableName())) {
+                return ScanResponse.builder().items(books).build();
+            }
+            long startedAt = Long.parseLong(request.expressionAttributeValues().get(":startedAt").n());
+            List<Map<String, AttributeValue>> stale = new ArrayList<>();
+            for (Map<String, AttributeValue> entry : index.values()) {
+                if (isStale(entry, startedAt)) {
+                    stale.add(entry);
+                }
+            }
+            return ScanResponse.builder().items(stale).build();
+        }
+
+        @Override
+        public DeleteItemResponse deleteItem(DeleteItemRequest request) {
+            String id = id(request.key());
+            long startedAt = Long.parseLong(request.expressionAttributeValues().get(":startedAt").n());
+            if (rewrittenAfterScan.contains(id) || !isStale(index.get(id), startedAt)) {
+                throw ConditionalCheckFailedException.builder().message("Rewritten").build();
+            }
+            index.remove(id);
+            deleted.add(id);
+            return DeleteItemResponse.builder().build();
+        }
+
+        @Override
+        public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+            for (WriteRequest write : request.requestItems().get(SearchIndex.TABLE)) {
+                put(write.putRequest().item());
+            }
+            return BatchWriteItemResponse.builder().build();
+        }
+
+        private static boolean isStale(Map<String, AttributeValue> entry, long startedAt) {
+            AttributeValue indexedAt = entry.get(SearchIndex.INDEXED_AT);
+            return indexedAt == null || Long.parseLong(indexedAt.n()) < startedAt;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package cl.rosta;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+
+// Cliente sin red para las pruebas: cada prueba sobrescribe solo las operaciones que usa
+// (las demás lanzan UnsupportedOperationException, como en la interfaz del SDK)
+class StubDynamoDbClient implements DynamoDbClient {
+
+    static ProvisionedThroughputExceededException throttle() {
+        return ProvisionedThroughputExceededException.builder()
+                .message("Throttled")
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("ProvisionedThroughputExceededException")
+                        .serviceName("DynamoDb")
+                        .build())
+                .build();
+    }
+
+    @Override
+    public String serviceName() {
+        return "dynamodb";
+    }
+
+    @Override
+    public void close() {
+    }
+}
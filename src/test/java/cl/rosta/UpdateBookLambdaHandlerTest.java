@@ -0,0 +1,246 @@
+package cl.rosta;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateBookLambdaHandlerTest {
+
+    @Test
+    void borrowerChangeIsOneConditionalTransaction() {
+        ScriptedClient client = new ScriptedClient(0);
+        client.reads.add(loan("Ana", "ana"));
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(update("{\"prestado_a\": \"Beto\"}"),
+                new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals(1, client.transactions.size());
+
+        List<TransactWriteItem> items = client.transactions.get(0).transactItems();
+        assertEquals(3, items.size());
+
+        Update book = items.get(0).update();
+        assertEquals("books", book.tableName());
+        assertTrue(book.conditionExpression().contains("#borrowerKey = :expectedBorrowerKey"));
+        assertEquals("ana", book.expressionAttributeValues().get(":expectedBorrowerKey").s());
+
+        assertEquals("ana", items.get(1).update().key().get("key").s());
+        assertEquals("-1", items.get(1).update().expressionAttributeValues().get(":delta").n());
+        assertEquals("beto", items.get(2).update().key().get("key").s());
+        assertEquals("1", items.get(2).update().expressionAttributeValues().get(":delta").n());
+
+        // Solo queda la limpieza condicional de la marca del prestatario anterior
+        assertEquals(1, client.updates.size());
+        assertEquals(LoanHistory.ROLLUPS_TABLE, client.updates.get(0).tableName());
+    }
+
+    @Test
+    void concurrentBorrowerChangeIsReRead() {
+        ScriptedClient client = new ScriptedClient(1);
+        client.reads.add(loan("Ana", "ana"));
+        client.reads.add(loan("Carla", "carla"));
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(update("{\"prestado_a\": \"Beto\"}"),
+                new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals(2, client.transactions.size());
+        // El segundo intento resta el préstamo de quien lo tenía según la nueva lectura
+        List<TransactWriteItem> items = client.transactions.get(1).transactItems();
+        assertEquals("carla", items.get(0).update().expressionAttributeValues().get(":expectedBorrowerKey").s());
+        assertEquals("carla", items.get(1).update().key().get("key").s());
+    }
+
+    @Test
+    void repeatedConflictsReturn409() {
+        ScriptedClient client = new ScriptedClient(Integer.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            client.reads.add(loan("Ana", "ana"));
+        }
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(update("{\"prestado_a\": \"Beto\"}"),
+                new LoadTestContext(false));
+
+        assertEquals(409, response.getStatusCode());
+        assertEquals(3, client.transactions.size());
+    }
+
+    @Test
+    void sameBorrowerIsAConditionalUpdate() {
+        ScriptedClient client = new ScriptedClient(0);
+        client.reads.add(loan("Ana", "ana"));
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(update("{\"title\": \"Ficciones\"}"),
+                new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals(0, client.transactions.size());
+        UpdateItemRequest request = client.updates.get(0);
+        assertEquals("books", request.tableName());
+        assertTrue(request.conditionExpression().contains("#borrowerKey = :expectedBorrowerKey"));
+    }
+
+    @Test
+    void nullFieldIsRemovedInsteadOfStoredAsNull() {
+        ScriptedClient client = new ScriptedClient(0);
+        Map<String, AttributeValue> book = new HashMap<>(loan("Ana", "ana"));
+        book.put("retorno_fecha", AttributeValue.builder().s("2024-05-15").build());
+        client.reads.add(book);
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(update("{\"retorno_fecha\": null}"),
+                new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        UpdateItemRequest request = client.updates.get(0);
+        String removed = request.updateExpression().substring(request.updateExpression().indexOf("REMOVE "));
+        String attribute = request.expressionAttributeNames().entrySet().stream()
+                .filter(entry -> "retorno_fecha".equals(entry.getValue()))
+                .map(Map.Entry::getKey)
+                .findFirst().orElseThrow();
+        assertTrue(removed.contains(attribute));
+        // Ningún campo queda guardado como NULL
+        assertFalse(request.expressionAttributeValues().values().stream().anyMatch(value -> Boolean.TRUE.equals(value.nul())));
+    }
+
+    @Test
+    void borrowerNameFollowsPrestadoA() {
+        ScriptedClient client = new ScriptedClient(0);
+        Map<String, AttributeValue> book = new HashMap<>(loan("Ana", "ana@example.com"));
+        book.put("email", AttributeValue.builder().s("ana@example.com").build());
+        book.put(BorrowerKeys.NAME_ATTRIBUTE, AttributeValue.builder().s("ana").build());
+        client.reads.add(book);
+        client.reads.add(book);
+
+        // Mismo email: la clave no cambia, pero el nombre para buscar sí
+        handler(client).handleRequest(update("{\"prestado_a\": \"Ana Pérez\"}"), new LoadTestContext(false));
+        UpdateItemRequest rename = client.updates.get(0);
+        assertEquals("ana perez", rename.expressionAttributeValues().get(nameAttribute(rename.expressionAttributeNames()).replace("#attr", ":val")).s());
+
+        // Sin prestatario el libro sale de ambos índices
+        handler(client).handleRequest(update("{\"prestado_a\": null, \"email\": null}"), new LoadTestContext(false));
+        Update returned = client.transactions.get(0).transactItems().get(0).update();
+        String removed = returned.updateExpression().substring(returned.updateExpression().indexOf("REMOVE "));
+        assertTrue(removed.contains(nameAttribute(returned.expressionAttributeNames())));
+        assertTrue(removed.contains("#borrowerKey"));
+    }
+
+    @Test
+    void removingFieldsOfABookWithoutBorrowerSendsNoValues() {
+        ScriptedClient client = new ScriptedClient(0);
+        client.reads.add(Map.of(
+                "id", AttributeValue.builder().s("1").build(),
+                "title", AttributeValue.builder().s("Rayuela").build(),
+                "notas", AttributeValue.builder().s("bueno").build()));
+
+        APIGatewayProxyResponseEvent response = handler(client).handleRequest(update("{\"notas\": null}"),
+                new LoadTestContext(false));
+
+        assertEquals(200, response.getStatusCode());
+        UpdateItemRequest request = client.updates.get(0);
+        assertTrue(request.updateExpression().startsWith("REMOVE "));
+        assertFalse(request.hasExpressionAttributeValues());
+    }
+
+    private static UpdateBookLambdaHandler handler(ScriptedClient client) {
+        return new UpdateBookLambdaHandler(client, DynamoDbRetryPolicy.builder().build(), new InMemoryMetricsSink());
+    }
+
+    private static APIGatewayProxyRequestEvent update(String body) {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        event.setPathParameters(Map.of("id", "1"));
+        event.setBody(body);
+        return event;
+    }
+
+    // Marcador "#attrN" de borrower_name en la expresión; su valor va en ":valN"
+    private static String nameAttribute(Map<String, String> names) {
+        return names.entrySet().stream()
+                .filter(entry -> BorrowerKeys.NAME_ATTRIBUTE.equals(entry.getValue()))
+                .map(Map.Entry::getKey)
+                .findFirst().orElseThrow();
+    }
+
+    private static Map<String, AttributeValue> loan(String borrower, String borrowerKey) {
+        return Map.of(
+                "id", AttributeValue.builder().s("1").build(),
+                "title", AttributeValue.builder().s("Rayuela").build(),
+                "prestado_a", AttributeValue.builder().s(borrower).build(),
+                BorrowerKeys.ATTRIBUTE, AttributeValue.builder().s(borrowerKey).build());
+    }
+
+    // Devuelve las lecturas de books en orden y cancela las primeras transacciones
+    // como si otra solicitud hubiera cambiado el prestatario
+    private static class ScriptedClient extends StubDynamoDbClient {
+        private final List<Map<String, AttributeValue>> reads = new ArrayList<>();
+        private final List<TransactWriteItemsRequest> transactions = new ArrayList<>();
+        private final List<UpdateItemRequest> updates = new ArrayList<>();
+        private final int conflicts;
+
+        ScriptedClient(int conflicts) {
+            this.conflicts = conflicts;
+        }
+
+        @Override
+        public GetItemResponse getItem(GetItemRequest request) {
+            if (!"books".equals(request.tableName()) || reads.isEmpty()) {
+                return GetItemResponse.builder().build();
+            }
+            return GetItemResponse.builder().item(reads.remove(0)).build();
+        }
+
+        @Override
+        public UpdateItemResponse updateItem(UpdateItemRequest request) {
+            updates.add(request);
+            return UpdateItemResponse.builder().attributes(Map.of("id", AttributeValue.builder().s("1").build())).build();
+        }
+
+        @Override
+        public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest request) {
+            transactions.add(request);
+            if (transactions.size() <= conflicts) {
+                throw TransactionCanceledException.builder()
+                        .message("Transaction cancelled")
+                        .cancellationReasons(CancellationReason.builder().code("ConditionalCheckFailed").build(),
+                                CancellationReason.builder().code("None").build(),
+                                CancellationReason.builder().code("None").build())
+                        .build();
+            }
+            return TransactWriteItemsResponse.builder().build();
+        }
+
+        @Override
+        public QueryResponse query(QueryRequest request) {
+            return QueryResponse.builder().build();
+        }
+
+        @Override
+        public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+            return BatchWriteItemResponse.builder().build();
+        }
+    }
+}
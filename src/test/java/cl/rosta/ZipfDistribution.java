@@ -0,0 +1,38 @@
+package cl.rosta;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Distribución Zipf sobre los rangos 0..size-1: el rango 0 es el más frecuente.
+// Se precalcula la función de distribución acumulada y se muestrea con búsqueda binaria
+public class ZipfDistribution {
+
+    private final double[] cumulative;
+
+    public ZipfDistribution(int size, double exponent) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be at least 1");
+        }
+
+        cumulative = new double[size];
+        double total = 0;
+        for (int rank = 0; rank < size; rank++) {
+            total += 1.0 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            cumulative[rank] /= total;
+        }
+    }
+
+    public int sample() {
+        double value = ThreadLocalRandom.current().nextDouble();
+        int index = Arrays.binarySearch(cumulative, value);
+        int rank = index >= 0 ? index : -index - 1;
+        return Math.min(rank, cumulative.length - 1);
+    }
+
+    public int size() {
+        return cumulative.length;
+    }
+}
@@ -1,63 +1,55 @@
-import { DynamoDBClient, ScanCommand } from '@aws-sdk/client-dynamodb';
+import { DynamoDBClient, QueryCommand } from '@aws-sdk/client-dynamodb';
 import { SNSClient, PublishCommand } from '@aws-sdk/client-sns';
 const dynamoClient = new DynamoDBClient({ region: 'us-east-1' });
 const snsClient = new SNSClient({ region: 'us-east-1' });
 // ARN de tu topic SNS
 const SNS_TOPIC_ARN =
 'arn:aws:sns:us-east-1:727774447800:prestado-book-tema-mail';
+// Agregados por prestatario (active_loans) e índice de libros por prestatario
+const ROLLUPS_TABLE = 'books_rollups';
+// Índice disperso: solo contiene los prestatarios con active_loans > 0, repartidos en
+// ROLLUP_SHARDS particiones ('borrower#0' a 'borrower#7'); debe coincidir con LoanHistory.ROLLUP_SHARDS
+const ACTIVE_BORROWERS_INDEX = 'active-borrowers-index';
+const ROLLUP_SHARDS = 8;
+const BORROWER_INDEX = 'borrower_key-index';
+const DIAS_AVISO = 3;
 export const handler = async (event, context) => {
 console.log(' Verificando libros prestados...');
 try {
-// 1. Obtener todos los libros de la tabla
-const params = {
-TableName: 'books',
-FilterExpression: 'attribute_exists(prestado_a) AND attribute_exists(retorno_fecha)'
-};
-const response = await dynamoClient.send(new ScanCommand(params));
-if (!response.Items || response.Items.length === 0) {
+// 1. Obtener los prestatarios con préstamos activos (Query sobre los agregados, sin scan)
+const prestatarios = await obtenerPrestatariosActivos();
+if (prestatarios.length === 0) {
 console.log('No hay libros prestados');
 return {
 statusCode: 200,
 body: JSON.stringify({ message: 'No hay libros prestados' })
 };
 }
-// 2. Verificar cuáles están por vencer
+// 2. Por cada prestatario, una Query al índice con los libros que vencen
+// en DIAS_AVISO días o menos (vencidos, hoy, mañana o pronto)
 const hoy = new Date();
 hoy.setHours(0, 0, 0, 0);
+const limite = new Date(hoy);
+limite.setDate(limite.getDate() + DIAS_AVISO);
 const notificaciones = [];
 
-for (const item of response.Items) {
-const libro = {
-id: item.id?.S,
-title: item.title?.S,
-prestado_a: item.prestado_a?.S,
-retorno_fecha: item.retorno_fecha?.S
-};
-if (!libro.retorno_fecha) continue;
-// Calcular días restantes
-const fechaRetorno = new Date(libro.retorno_fecha + 'T00:00:00');
-const diasRestantes = Math.floor((fechaRetorno - hoy) / (1000 * 60 *
-60 * 24));
-// Notificar si:
-// - Está vencido (días < 0)
-// - Vence hoy (días = 0)
-// - Vence mañana (días = 1)
-// - Vence en 3 días o menos
-if (diasRestantes <= 3) {
+for (const prestatario of prestatarios) {
+const libros = await obtenerLibrosPorVencer(prestatario.key, formatearFecha(limite), hoy);
+if (libros.length === 0) continue;
+// 3. Enviar un resumen por prestatario
+await enviarNotificacionSNS(libros, prestatario);
 notificaciones.push({
-...libro,
-diasRestantes
+prestatario: prestatario.label || prestatario.key,
+libros
 });
 }
-}
-// 3. Si hay libros por vencer, enviar notificación
 if (notificaciones.length > 0) {
-await enviarNotificacionSNS(notificaciones);
 return {
 statusCode: 200,
 body: JSON.stringify({
 message: 'Notificaciones enviadas',
-librosNotificados: notificaciones.length,
+prestatariosNotificados: notificaciones.length,
+librosNotificados: notificaciones.reduce((total, n) => total + n.libros.length, 0),
 detalles: notificaciones
 })
 };
@@ -81,10 +73,76 @@ error: error.message
 };
 }
 };
+// Prestatarios con active_loans > 0, leídos del índice disperso (paginado, una Query por fragmento).
+// La lectura es proporcional a los prestatarios activos, no a todos los que alguna vez pidieron un libro
+async function obtenerPrestatariosActivos() {
+const prestatarios = [];
+for (let fragmento = 0; fragmento < ROLLUP_SHARDS; fragmento++) {
+let exclusiveStartKey;
+do {
+const response = await dynamoClient.send(new QueryCommand({
+TableName: ROLLUPS_TABLE,
+IndexName: ACTIVE_BORROWERS_INDEX,
+KeyConditionExpression: '#activeFlag = :partition',
+ExpressionAttributeNames: { '#activeFlag': 'active_dimension' },
+ExpressionAttributeValues: { ':partition': { S: `borrower#${fragmento}` } },
+ExclusiveStartKey: exclusiveStartKey
+}));
+for (const item of response.Items || []) {
+// Una marca que quedó sin limpiar (active_loans en 0) no genera notificaciones
+if (Number(item.active_loans?.N || 0) <= 0) continue;
+prestatarios.push({ key: item.key?.S, label: item.label?.S });
+}
+exclusiveStartKey = response.LastEvaluatedKey;
+} while (exclusiveStartKey);
+}
+return prestatarios;
+}
+// Libros del prestatario con retorno_fecha <= límite, usando el índice por prestatario.
+// La clave de orden del índice es id: la fecha se filtra y los libros sin retorno_fecha quedan fuera
+async function obtenerLibrosPorVencer(borrowerKey, limite, hoy) {
+const libros = [];
+let exclusiveStartKey;
+do {
+const response = await dynamoClient.send(new QueryCommand({
+TableName: 'books',
+IndexName: BORROWER_INDEX,
+KeyConditionExpression: 'borrower_key = :key',
+FilterExpression: 'retorno_fecha <= :limite',
+ExpressionAttributeValues: { ':key': { S: borrowerKey }, ':limite': { S: limite } },
+ExclusiveStartKey: exclusiveStartKey
+}));
+for (const item of response.Items || []) {
+const libro = {
+id: item.id?.S,
+title: item.title?.S,
+prestado_a: item.prestado_a?.S,
+retorno_fecha: item.retorno_fecha?.S
+};
+// Calcular días restantes
+const fechaRetorno = new Date(libro.retorno_fecha + 'T00:00:00');
+const diasRestantes = Math.floor((fechaRetorno - hoy) / (1000 * 60 *
+60 * 24));
+libros.push({
+...libro,
+diasRestantes
+});
+}
+exclusiveStartKey = response.LastEvaluatedKey;
+} while (exclusiveStartKey);
+return libros;
+}
+function formatearFecha(fecha) {
+const mes = String(fecha.getMonth() + 1).padStart(2, '0');
+const dia = String(fecha.getDate()).padStart(2, '0');
+return `${fecha.getFullYear()}-${mes}-${dia}`;
+}
 // Función para enviar notificación a SNS
-async function enviarNotificacionSNS(libros) {
+async function enviarNotificacionSNS(libros, prestatario) {
+const nombre = prestatario.label || prestatario.key;
 // Construir el mensaje
 let mensaje = ' ALERTA DE LIBROS PRESTADOS\n';
+mensaje += `Prestatario: ${nombre}\n`;
 mensaje += '================================\n\n';
 // Separar por urgencia
 const vencidos = libros.filter(l => l.diasRestantes < 0);
@@ -117,12 +175,15 @@ mensaje += '================================\n';
 mensaje += `Total de libros en alerta: ${libros.length}\n`;
 mensaje += `Hora de verificación: ${new Date().toLocaleString('es-CL', {
 timeZone: 'America/Santiago' })}`;
-// Enviar a SNS
+// Enviar a SNS (el atributo borrower_key permite filtrar suscripciones por prestatario)
 const params = {
 TopicArn: SNS_TOPIC_ARN,
 Subject: ` Alerta: ${libros.length} libro${libros.length > 1 ? 's' :
-''} por vencer`,
-Message: mensaje
+''} por vencer - ${nombre}`.substring(0, 99), // SNS exige menos de 100 caracteres
+Message: mensaje,
+MessageAttributes: {
+borrower_key: { DataType: 'String', StringValue: prestatario.key }
+}
 };
 console.log('Enviando notificación a SNS...');
 const command = new PublishCommand(params);